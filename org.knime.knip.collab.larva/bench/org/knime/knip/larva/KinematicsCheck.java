@@ -0,0 +1,349 @@
+package org.knime.knip.larva;
+
+import java.awt.geom.Point2D;
+import java.util.Random;
+
+/**
+ * Compares the features of {@link LarvaKinematics} with the former row by
+ * row computation of the features node, which is kept here as reference.
+ * This folder is not a source folder of the bundle, the class is compiled
+ * against the classes of the bundle and started with its main method:
+ *
+ * <pre>
+ * javac -cp bin:&lt;KNIME jars&gt; -d bench-bin bench/org/knime/knip/larva/KinematicsCheck.java
+ * java -cp bench-bin:bin:&lt;KNIME jars&gt; org.knime.knip.larva.KinematicsCheck [tracks [seed]]
+ * </pre>
+ *
+ * The tracks are a crafted track with the corner cases of the angles
+ * (vertical body axes, equal points, -0 and 0 against a negative x-
+ * difference, turns of exactly 180 degrees, repeated times) and random
+ * tracks on the pixel grid, where these cases occur by chance. Each track is
+ * computed at once and in chunks, the chunks by new instances which continue
+ * the state of the previous one, with and without a container. The values
+ * have to be the same to the bit, even the sign of 0, otherwise an
+ * {@link IllegalStateException} is thrown.
+ *
+ * @author wildnerm, University of Konstanz
+ */
+public final class KinematicsCheck {
+
+	/* rows per call if a track is computed in chunks */
+	private static final int[] CHUNK_ROWS = new int[] { 1, 7, 100 };
+
+	/* number of rows of the random tracks */
+	private static final int MAX_TRACK_ROWS = 2000;
+
+	private static final String[] FEATURE_NAMES = new String[] { "alpha abs",
+			"alpha", "theta", "reorientation speed", "v centroid", "v head",
+			"v center", "distance to container", "length" };
+
+	/* number of checked rows */
+	private static long s_numRows = 0;
+
+	private KinematicsCheck() {
+		// main only
+	}
+
+	/**
+	 * @param args
+	 *            number of random tracks (100 if not given) and the seed of
+	 *            the first one
+	 */
+	public static void main(String[] args) {
+		int numTracks = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+		long seed = args.length > 1 ? Long.parseLong(args[1]) : 0;
+
+		check("corner cases", createCornerTrack());
+		for (int t = 0; t < numTracks; t++) {
+			check("random track " + (seed + t), createRandomTrack(seed + t));
+		}
+		System.out.println("checked rows: " + s_numRows);
+	}
+
+	/**
+	 * Checks a track with and without a container, at once and in chunks.
+	 */
+	private static void check(String name, LarvaTrajectory trajectory) {
+		for (int c = 0; c < 2; c++) {
+			boolean hasContainer = c == 1;
+			double containerX = 40.5;
+			double containerY = -3;
+			double[][] reference = computeReference(trajectory,
+					hasContainer, containerX, containerY);
+
+			LarvaKinematics kinematics = new LarvaKinematics();
+			if (hasContainer) {
+				kinematics.setContainer(containerX, containerY);
+			}
+			kinematics.compute(trajectory, 0, trajectory.size());
+			compare(name + ", container " + hasContainer + ", at once",
+					reference, kinematics, 0, trajectory.size());
+
+			for (int chunkRows : CHUNK_ROWS) {
+				double prevAlphaAbs = 0;
+				double prevAlphaRel = 0;
+				for (int start = 0; start < trajectory.size(); start += chunkRows) {
+					int end = Math.min(start + chunkRows, trajectory.size());
+					// as in a later execution, only the state is kept
+					kinematics = new LarvaKinematics();
+					if (hasContainer) {
+						kinematics.setContainer(containerX, containerY);
+					}
+					kinematics.setState(prevAlphaAbs, prevAlphaRel);
+					kinematics.compute(trajectory, start, end);
+					compare(name + ", container " + hasContainer
+							+ ", chunks of " + chunkRows, reference,
+							kinematics, start, end);
+					prevAlphaAbs = kinematics.getPrevAlphaAbs();
+					prevAlphaRel = kinematics.getPrevAlphaRel();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Compares the features of the rows start ... end-1.
+	 */
+	private static void compare(String name, double[][] reference,
+			LarvaKinematics kinematics, int start, int end) {
+		for (int f = 0; f < LarvaKinematics.NUM_FEATURES; f++) {
+			double[] values = kinematics.feature(f);
+			for (int r = start; r < end; r++) {
+				double expected = reference[f][r];
+				double actual = values[r - start];
+				if (Double.doubleToLongBits(expected) != Double
+						.doubleToLongBits(actual)) {
+					throw new IllegalStateException(FEATURE_NAMES[f]
+							+ " of row " + r + " is " + actual + " instead of "
+							+ expected + " (" + name + ")");
+				}
+			}
+		}
+		s_numRows += end - start;
+	}
+
+	/**
+	 * Computes the features row by row as the features node did before the
+	 * features were computed by {@link LarvaKinematics}.
+	 *
+	 * @return the features of all rows, feature by feature
+	 */
+	private static double[][] computeReference(LarvaTrajectory trajectory,
+			boolean hasContainer, double containerX, double containerY) {
+		double[] headX = trajectory.column(LarvaTrajectory.HEAD_X);
+		double[] headY = trajectory.column(LarvaTrajectory.HEAD_Y);
+		double[] tailX = trajectory.column(LarvaTrajectory.TAIL_X);
+		double[] tailY = trajectory.column(LarvaTrajectory.TAIL_Y);
+		double[] centerX = trajectory.column(LarvaTrajectory.CENTER_X);
+		double[] centerY = trajectory.column(LarvaTrajectory.CENTER_Y);
+		double[] centroidX = trajectory.column(LarvaTrajectory.CENTROID_X);
+		double[] centroidY = trajectory.column(LarvaTrajectory.CENTROID_Y);
+		double[] time = trajectory.column(LarvaTrajectory.TIME);
+
+		double[][] features = new double[LarvaKinematics.NUM_FEATURES][trajectory
+				.size()];
+		double prevAlphaAbs = 0;
+		double prevAlphaRel = 0;
+		for (int ctr = 0; ctr < trajectory.size(); ctr++) {
+			// the first row is compared to itself
+			int prev = Math.max(ctr - 1, 0);
+
+			double currAlphaAbs = computeAngleAbs(tailX[ctr], tailY[ctr],
+					centerX[ctr], centerY[ctr]);
+			double alphaRel = prevAlphaRel
+					+ computeAngleDiff(prevAlphaAbs, currAlphaAbs);
+			double angleHeadAxes = computeAngleAbs(centerX[ctr],
+					centerY[ctr], headX[ctr], headY[ctr]);
+			double theta = computeAngleDiff(currAlphaAbs, angleHeadAxes);
+
+			double dTime = time[ctr] - time[prev];
+			double reoSpeed = 0;
+			double vCentroid = 0;
+			double vHead = 0;
+			double vCenter = 0;
+			if (dTime != 0) {
+				reoSpeed = Math.abs((alphaRel - prevAlphaRel)) / dTime;
+				vCentroid = Point2D.distance(centroidX[ctr], centroidY[ctr],
+						centroidX[prev], centroidY[prev]) / dTime;
+				vHead = Point2D.distance(headX[ctr], headY[ctr], headX[prev],
+						headY[prev]) / dTime;
+				vCenter = Point2D.distance(centerX[ctr], centerY[ctr],
+						centerX[prev], centerY[prev]);
+			}
+
+			double distToContainer = -1;
+			if (hasContainer) {
+				distToContainer = Point2D.distance(centerX[ctr], centerY[ctr],
+						containerX, containerY);
+			}
+
+			double lengthLarva = Point2D.distance(tailX[ctr], tailY[ctr],
+					centerX[ctr], centerY[ctr])
+					+ Point2D.distance(centerX[ctr], centerY[ctr], headX[ctr],
+							headY[ctr]) + 2;
+
+			features[LarvaKinematics.ALPHA_ABS][ctr] = currAlphaAbs;
+			features[LarvaKinematics.ALPHA][ctr] = alphaRel;
+			features[LarvaKinematics.THETA][ctr] = theta;
+			features[LarvaKinematics.REORIENT_SPEED][ctr] = reoSpeed;
+			features[LarvaKinematics.V_CENTROID][ctr] = vCentroid;
+			features[LarvaKinematics.V_HEAD][ctr] = vHead;
+			features[LarvaKinematics.V_CENTER][ctr] = vCenter;
+			features[LarvaKinematics.DIST_TO_CONTAINER][ctr] = distToContainer;
+			features[LarvaKinematics.LENGTH][ctr] = lengthLarva;
+
+			if (currAlphaAbs != Double.POSITIVE_INFINITY) {
+				prevAlphaAbs = currAlphaAbs;
+			}
+			prevAlphaRel = alphaRel;
+		}
+		return features;
+	}
+
+	/**
+	 * Absolute angle as computed by the features node before
+	 * {@link LarvaKinematics}.
+	 */
+	private static double computeAngleAbs(double fixedX, double fixedY,
+			double movableX, double movableY) {
+		double num = fixedY - movableY;
+		double denom = movableX - fixedX;
+		double angleAbs;
+		if (denom == 0) {
+			if (num < 0) {
+				angleAbs = -90;
+			} else if (num > 0) {
+				angleAbs = 90;
+			} else {
+				angleAbs = Double.POSITIVE_INFINITY;
+			}
+		} else {
+			if (denom < 0) {
+				if (num < 0) {
+					angleAbs = -180 + Math.toDegrees((Math.atan(num / denom)));
+				} else {
+					angleAbs = 180 + Math.toDegrees((Math.atan(num / denom)));
+				}
+			} else {
+				angleAbs = Math.toDegrees((Math.atan(num / denom)));
+			}
+		}
+		return angleAbs;
+	}
+
+	/**
+	 * Difference of two angles as computed by the features node before
+	 * {@link LarvaKinematics}.
+	 */
+	private static double computeAngleDiff(double fixedAngle,
+			double movableAngle) {
+		if (fixedAngle == Double.POSITIVE_INFINITY
+				|| movableAngle == Double.POSITIVE_INFINITY) {
+			return 0;
+		} else {
+			double tempFixed = (fixedAngle + 360) % 360;
+			double tempMovable = (movableAngle + 360) % 360;
+			double diff = tempMovable - tempFixed;
+			if (diff > 180) {
+				return -360 + diff;
+			} else if (diff < -180) {
+				return 360 + diff;
+			} else {
+				return diff;
+			}
+		}
+	}
+
+	/**
+	 * Creates a track whose rows hit the corner cases of the angles one after
+	 * another.
+	 */
+	private static LarvaTrajectory createCornerTrack() {
+		// tail x, tail y, center x, center y, head x, head y, time
+		double[][] rows = new double[][] {
+				// equal tail and center in the first row
+				{ 5, 5, 5, 5, 8, 5, 0 },
+				// vertical body axis, upwards and downwards (x- difference 0)
+				{ 5, 10, 5, 5, 5, 0, 1 },
+				{ 5, 0, 5, 5, 5, 10, 2 },
+				{ 5, 10, 5, 5, 5, 0, 3 },
+				// equal center and head
+				{ 0, 0, 5, 0, 5, 0, 4 },
+				// 0 and -0 as y- difference against a negative x- difference
+				{ 10, 0, 5, 0, 0, 0, 5 },
+				{ 10, -0.0, 5, 0, 0, -0.0, 6 },
+				{ 10, 0, 5, -0.0, 0, 0, 7 },
+				// turns by exactly 180 degrees, back and forth
+				{ 0, 0, 5, 0, 10, 0, 8 },
+				{ 10, 0, 5, 0, 0, 0, 9 },
+				{ 0, 0, 5, 0, 10, 0, 10 },
+				{ 5, 0, 5, 5, 5, 10, 11 },
+				{ 5, 10, 5, 5, 5, 0, 12 },
+				{ 0, 0, 5, 5, 10, 10, 13 },
+				{ 10, 10, 5, 5, 0, 0, 14 },
+				// head turned back onto the tail
+				{ 0, 0, 5, 0, 0, 0, 15 },
+				// equal tail and center, the body angle keeps the last valid
+				// absolute angle
+				{ 3, 3, 3, 3, 3, 3, 16 },
+				{ 7, 2, 3, 3, 0, 5, 17 },
+				// repeated times
+				{ 2, 7, 3, 3, 5, 0, 17 },
+				{ 2, 7, 3, 3, 5, 0, 17 },
+				{ 9, 9, 3, 3, 5, 0, 18.5 },
+				{ 9, 9, 3, 3, 5, 0, 18.5 } };
+		LarvaTrajectory trajectory = new LarvaTrajectory(
+				LarvaTrajectory.NUM_COLUMNS, rows.length);
+		double[] row = new double[LarvaTrajectory.NUM_COLUMNS];
+		for (int r = 0; r < rows.length; r++) {
+			row[LarvaTrajectory.TAIL_X] = rows[r][0];
+			row[LarvaTrajectory.TAIL_Y] = rows[r][1];
+			row[LarvaTrajectory.CENTER_X] = rows[r][2];
+			row[LarvaTrajectory.CENTER_Y] = rows[r][3];
+			row[LarvaTrajectory.HEAD_X] = rows[r][4];
+			row[LarvaTrajectory.HEAD_Y] = rows[r][5];
+			row[LarvaTrajectory.CENTROID_X] = (rows[r][0] + rows[r][2] + rows[r][4]) / 3;
+			row[LarvaTrajectory.CENTROID_Y] = (rows[r][1] + rows[r][3] + rows[r][5]) / 3;
+			row[LarvaTrajectory.TIME] = rows[r][6];
+			trajectory.add(row);
+		}
+		return trajectory;
+	}
+
+	/**
+	 * Creates a track of a larva whose points move on the pixel grid as the
+	 * points of the feature set, so equal points, vertical and horizontal
+	 * axes and repeated times occur.
+	 */
+	private static LarvaTrajectory createRandomTrack(long seed) {
+		Random random = new Random(seed);
+		int numRows = 1 + random.nextInt(MAX_TRACK_ROWS);
+		LarvaTrajectory trajectory = new LarvaTrajectory(
+				LarvaTrajectory.NUM_COLUMNS, numRows);
+		double[] row = new double[LarvaTrajectory.NUM_COLUMNS];
+		int[] points = new int[6];
+		for (int p = 0; p < points.length; p++) {
+			points[p] = 20 + random.nextInt(5);
+		}
+		double time = 0;
+		for (int r = 0; r < numRows; r++) {
+			for (int p = 0; p < points.length; p++) {
+				points[p] += random.nextInt(3) - 1;
+			}
+			row[LarvaTrajectory.TAIL_X] = points[0];
+			row[LarvaTrajectory.TAIL_Y] = points[1];
+			row[LarvaTrajectory.CENTER_X] = points[2];
+			row[LarvaTrajectory.CENTER_Y] = points[3];
+			row[LarvaTrajectory.HEAD_X] = points[4];
+			row[LarvaTrajectory.HEAD_Y] = points[5];
+			row[LarvaTrajectory.CENTROID_X] = (points[0] + points[2] + points[4]) / 3.0;
+			row[LarvaTrajectory.CENTROID_Y] = (points[1] + points[3] + points[5]) / 3.0;
+			if (random.nextInt(10) != 0) {
+				time += random.nextInt(4) == 0 ? 0.5 : 1 / 30.0;
+			}
+			row[LarvaTrajectory.TIME] = time;
+			trajectory.add(row);
+		}
+		return trajectory;
+	}
+}
@@ -0,0 +1,549 @@
+package org.knime.knip.larva.ops;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import net.imglib2.Cursor;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.meta.ImgPlus;
+import net.imglib2.type.logic.BitType;
+
+import org.knime.knip.larva.LarvaGrid;
+import org.knime.knip.larva.LarvaKinematics;
+import org.knime.knip.larva.LarvaTrajectory;
+
+/**
+ * Compares the run time of the thinning algorithms on synthetic larva masks
+ * and times the stages around them: ordering the skeleton into a spine,
+ * adding the masks to a grid and computing the features of a trajectory.
+ * This folder is not a source folder of the bundle, the class is compiled
+ * against the classes of the bundle and started with its main method:
+ *
+ * <pre>
+ * javac -cp bin:&lt;imglib2 and KNIME jars&gt; -d bench-bin bench/org/knime/knip/larva/ops/ThinningTiming.java
+ * java -cp bench-bin:bin:&lt;imglib2 and KNIME jars&gt; org.knime.knip.larva.ops.ThinningTiming [size ...]
+ * </pre>
+ *
+ * Each size is the width and height of a square image holding one larva, with
+ * and without noise and bent from straight to a C-shape. The inputs of a run
+ * are prepared outside of the timed section, so only the measured stage
+ * itself is timed. The median and the minimum of the runs are printed in
+ * milliseconds together with a result of the stage, e.g. the number of
+ * skeleton points. The variants of {@link ThinningLee} have to thin each mask
+ * to the same skeleton, otherwise an {@link IllegalStateException} is thrown.
+ *
+ * @author wildnerm, University of Konstanz
+ */
+public final class ThinningTiming {
+
+	/* runs which are not measured */
+	private static final int WARMUP_RUNS = 20;
+
+	/* measured runs */
+	private static final int RUNS = 50;
+
+	/* fraction of pixels which are flipped in the noisy masks */
+	private static final double NOISE = 0.01;
+
+	/* change of direction from one end of the larva to the other in radians */
+	private static final double[] BENDS = new double[] { 0, 1.5, 3 };
+
+	/* branches of the skeletons which are pruned before ordering the spine */
+	private static final int MIN_SPUR_LENGTH = 5;
+
+	/* bins of the grid, as the default grid of the grid operators */
+	private static final double GRID_FACTOR = 0.09;
+
+	private static final int GRID_BINS = (int) (1 / GRID_FACTOR);
+
+	/* number of rows of the trajectories */
+	private static final int[] TRACK_ROWS = new int[] { 10000, 1000000 };
+
+	/* rows per call if a trajectory is computed in chunks */
+	private static final int CHUNK_ROWS = 100;
+
+	private ThinningTiming() {
+		// main only
+	}
+
+	/**
+	 * @param args
+	 *            sizes of the images, 64 256 1024 if none are given
+	 */
+	public static void main(String[] args) {
+		int[] sizes = new int[] { 64, 256, 1024 };
+		if (args.length > 0) {
+			sizes = new int[args.length];
+			for (int i = 0; i < args.length; i++) {
+				sizes[i] = Integer.parseInt(args[i]);
+			}
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(Runtime
+				.getRuntime().availableProcessors());
+		try {
+			System.out
+					.println("stage\tsize\tnoise\tbend\tvariant\tmedian ms\tmin ms\tresult");
+			timeThinnings(sizes, executor);
+			timeSpines(sizes);
+			timeGrids(sizes);
+			timeKinematics();
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Times the thinnings on each mask and checks that the variants of Lee
+	 * give the same skeleton.
+	 *
+	 * @param sizes
+	 *            sizes of the masks
+	 * @param executor
+	 *            executor of the parallel thinning
+	 */
+	private static void timeThinnings(int[] sizes, ExecutorService executor) {
+		String[] names = new String[] { "Lee", "Lee (frontier)",
+				"Lee (parallel tiles)", "Guo-Hall" };
+		AbstractThinning<?>[] thinnings = new AbstractThinning<?>[] {
+				new ThinningLee<Img<BitType>>(),
+				new ThinningLee<Img<BitType>>(true),
+				new ThinningLee<Img<BitType>>(false, false, executor),
+				new ThinningGuoHall<Img<BitType>>() };
+		// the first thinnings are Lee, the first one is the reference
+		int numLee = 3;
+
+		for (int s = 0; s < sizes.length; s++) {
+			for (int n = 0; n < 2; n++) {
+				double noise = n == 0 ? 0 : NOISE;
+				for (double bend : BENDS) {
+					BinaryRaster mask = createLarvaMask(sizes[s], noise, bend,
+							s);
+					String prefix = sizes[s] + "\t" + noise + "\t" + bend
+							+ "\t";
+					byte[] reference = null;
+					for (int t = 0; t < thinnings.length; t++) {
+						BinaryRaster raster = new BinaryRaster(mask.width(),
+								mask.height());
+						String times = time(createThinningTask(thinnings[t],
+								mask, raster));
+						System.out.println("thinning\t" + prefix + names[t]
+								+ "\t" + times);
+						if (t == 0) {
+							reference = raster.data().clone();
+						} else if (t < numLee
+								&& !Arrays.equals(reference, raster.data())) {
+							throw new IllegalStateException(names[t]
+									+ " differs from " + names[0] + " at "
+									+ prefix.replace('\t', ' '));
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Times ordering the skeletons of the masks into spines, the skeletons
+	 * are thinned by Lee beforehand.
+	 *
+	 * @param sizes
+	 *            sizes of the masks
+	 */
+	private static void timeSpines(int[] sizes) {
+		AbstractThinning<?> thinning = new ThinningLee<Img<BitType>>();
+		final SkeletonGraph graph = new SkeletonGraph(MIN_SPUR_LENGTH);
+		for (int s = 0; s < sizes.length; s++) {
+			for (int n = 0; n < 2; n++) {
+				double noise = n == 0 ? 0 : NOISE;
+				for (double bend : BENDS) {
+					final BinaryRaster skeleton = createLarvaMask(sizes[s],
+							noise, bend, s);
+					thinning.computeThinImage(skeleton);
+
+					// the points in the order of the feature set, row by row
+					int numPoints = 0;
+					final int[] pointsX = new int[countPoints(skeleton)];
+					final int[] pointsY = new int[pointsX.length];
+					byte[] data = skeleton.data();
+					for (int y = 0; y < skeleton.height(); y++) {
+						for (int x = 0; x < skeleton.width(); x++) {
+							if (data[skeleton.index(x, y)] != 0) {
+								pointsX[numPoints] = x;
+								pointsY[numPoints] = y;
+								numPoints++;
+							}
+						}
+					}
+
+					String times = time(new Task() {
+						@Override
+						void run() {
+							graph.reset(0, 0, skeleton.width(),
+									skeleton.height());
+							for (int i = 0; i < pointsX.length; i++) {
+								graph.addPoint(pointsX[i], pointsY[i]);
+							}
+							graph.computeSpine();
+						}
+
+						@Override
+						int result() {
+							return graph.spineLength();
+						}
+					});
+					System.out.println("spine\t" + sizes[s] + "\t" + noise
+							+ "\t" + bend + "\tSkeletonGraph\t" + times);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Times adding the masks to a grid.
+	 *
+	 * @param sizes
+	 *            sizes of the masks
+	 */
+	private static void timeGrids(int[] sizes) {
+		for (int s = 0; s < sizes.length; s++) {
+			for (int n = 0; n < 2; n++) {
+				double noise = n == 0 ? 0 : NOISE;
+				for (double bend : BENDS) {
+					final int size = sizes[s];
+					final ImgPlus<BitType> img = createImg(createLarvaMask(
+							size, noise, bend, s));
+					final int[] counts = new int[GRID_BINS * GRID_BINS];
+					String times = time(new Task() {
+						private LarvaGrid m_grid;
+
+						@Override
+						void prepare() {
+							m_grid = LarvaGrid.createRelative(size, size,
+									GRID_BINS, GRID_FACTOR);
+						}
+
+						@Override
+						void run() {
+							m_grid.add(img);
+						}
+
+						@Override
+						int result() {
+							m_grid.getCounts(counts);
+							int sum = 0;
+							for (int count : counts) {
+								sum += count;
+							}
+							return sum;
+						}
+					});
+					System.out.println("grid\t" + size + "\t" + noise + "\t"
+							+ bend + "\tLarvaGrid.add\t" + times);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Times filling a trajectory row by row and computing its features at
+	 * once and in chunks, as an incremental execution does.
+	 */
+	private static void timeKinematics() {
+		for (int s = 0; s < TRACK_ROWS.length; s++) {
+			final int numRows = TRACK_ROWS[s];
+			final LarvaTrajectory source = createTrack(numRows, s);
+			final LarvaTrajectory trajectory = new LarvaTrajectory(
+					LarvaTrajectory.NUM_COLUMNS, numRows);
+			final LarvaKinematics kinematics = new LarvaKinematics();
+			String prefix = "kinematics\t" + numRows + "\t-\t-\t";
+
+			String times = time(new Task() {
+				private final double[] m_row = new double[LarvaTrajectory.NUM_COLUMNS];
+
+				@Override
+				void prepare() {
+					trajectory.clear();
+				}
+
+				@Override
+				void run() {
+					for (int r = 0; r < numRows; r++) {
+						for (int c = 0; c < m_row.length; c++) {
+							m_row[c] = source.get(c, r);
+						}
+						trajectory.add(m_row);
+					}
+				}
+
+				@Override
+				int result() {
+					return trajectory.size();
+				}
+			});
+			System.out.println(prefix + "LarvaTrajectory.add\t" + times);
+
+			times = time(new Task() {
+				@Override
+				void prepare() {
+					kinematics.reset();
+				}
+
+				@Override
+				void run() {
+					kinematics.compute(source, 0, numRows);
+				}
+
+				@Override
+				int result() {
+					return (int) kinematics.getPrevAlphaRel();
+				}
+			});
+			System.out.println(prefix + "LarvaKinematics.compute\t" + times);
+
+			times = time(new Task() {
+				@Override
+				void prepare() {
+					kinematics.reset();
+				}
+
+				@Override
+				void run() {
+					for (int start = 0; start < numRows; start += CHUNK_ROWS) {
+						kinematics.compute(source, start,
+								Math.min(numRows, start + CHUNK_ROWS));
+					}
+				}
+
+				@Override
+				int result() {
+					return (int) kinematics.getPrevAlphaRel();
+				}
+			});
+			System.out.println(prefix + "LarvaKinematics.compute ("
+					+ CHUNK_ROWS + " rows)\t" + times);
+		}
+	}
+
+	/**
+	 * A measured stage.
+	 */
+	private abstract static class Task {
+
+		/**
+		 * Prepares a run, called outside of the timed section.
+		 */
+		void prepare() {
+			// nothing to prepare
+		}
+
+		/**
+		 * Runs the stage, this is timed.
+		 */
+		abstract void run();
+
+		/**
+		 * @return a result of the last run which is printed, e.g. the number
+		 *         of points
+		 */
+		abstract int result();
+	}
+
+	/**
+	 * Runs a task several times.
+	 *
+	 * @param task
+	 *            the task
+	 * @return the median and the minimum time in milliseconds and the result
+	 *         of the last run, separated by tabs
+	 */
+	private static String time(Task task) {
+		long[] times = new long[RUNS];
+		for (int run = -WARMUP_RUNS; run < RUNS; run++) {
+			task.prepare();
+			long start = System.nanoTime();
+			task.run();
+			long time = System.nanoTime() - start;
+			if (run >= 0) {
+				times[run] = time;
+			}
+		}
+		Arrays.sort(times);
+		return times[RUNS / 2] / 1e6 + "\t" + times[0] / 1e6 + "\t"
+				+ task.result();
+	}
+
+	/**
+	 * @param thinning
+	 *            the thinning
+	 * @param mask
+	 *            the mask, it is not changed
+	 * @param raster
+	 *            raster of the size of the mask, holds the skeleton of the
+	 *            last run
+	 * @return task which thins a copy of the mask, its result is the number
+	 *         of skeleton points
+	 */
+	private static Task createThinningTask(final AbstractThinning<?> thinning,
+			final BinaryRaster mask, final BinaryRaster raster) {
+		return new Task() {
+			@Override
+			void prepare() {
+				System.arraycopy(mask.data(), 0, raster.data(), 0,
+						mask.data().length);
+			}
+
+			@Override
+			void run() {
+				thinning.computeThinImage(raster);
+			}
+
+			@Override
+			int result() {
+				return countPoints(raster);
+			}
+		};
+	}
+
+	/**
+	 * @param raster
+	 *            the raster
+	 * @return number of foreground pixels
+	 */
+	private static int countPoints(BinaryRaster raster) {
+		int numPoints = 0;
+		byte[] data = raster.data();
+		for (int i = 0; i < data.length; i++) {
+			numPoints += data[i];
+		}
+		return numPoints;
+	}
+
+	/**
+	 * Draws a larva which gets thinner towards both ends into a square raster
+	 * and flips random pixels.
+	 *
+	 * @param size
+	 *            width and height of the raster
+	 * @param noise
+	 *            fraction of pixels which are flipped
+	 * @param bend
+	 *            change of direction from one end of the larva to the other
+	 *            in radians, 0 for a straight larva
+	 * @param seed
+	 *            seed of the direction and the noise
+	 * @return the mask
+	 */
+	private static BinaryRaster createLarvaMask(int size, double noise,
+			double bend, long seed) {
+		Random random = new Random(seed);
+		BinaryRaster raster = new BinaryRaster(size, size);
+		byte[] data = raster.data();
+
+		double length = 0.6 * size;
+		double thickness = 0.08 * size;
+		double curvature = bend / length;
+		// the middle of the larva points in the random direction
+		double angle = random.nextDouble() * 2 * Math.PI - bend / 2;
+		// start such that the middle of the curve is in the middle of the
+		// raster, the chord of a circular arc is shorter than the arc
+		double chord = bend == 0 ? length : 2 * length / bend
+				* Math.sin(bend / 2);
+		double x = size / 2.0 - Math.cos(angle + bend / 2) * chord / 2;
+		double y = size / 2.0 - Math.sin(angle + bend / 2) * chord / 2;
+		for (int step = 0; step < length; step++) {
+			angle += curvature;
+			x += Math.cos(angle);
+			y += Math.sin(angle);
+			double radius = thickness
+					* (0.4 + 0.6 * Math.sin(Math.PI * step / length));
+			int r = (int) Math.ceil(radius);
+			for (int dy = -r; dy <= r; dy++) {
+				for (int dx = -r; dx <= r; dx++) {
+					int px = (int) (x + dx);
+					int py = (int) (y + dy);
+					if (dx * dx + dy * dy <= radius * radius && px >= 0
+							&& py >= 0 && px < size && py < size) {
+						data[raster.index(px, py)] = 1;
+					}
+				}
+			}
+		}
+
+		for (int i = 0; i < size * size * noise; i++) {
+			int index = raster.index(random.nextInt(size),
+					random.nextInt(size));
+			data[index] = (byte) (1 - data[index]);
+		}
+		return raster;
+	}
+
+	/**
+	 * @param mask
+	 *            the mask
+	 * @return bit image holding the mask, as the images of the grid operators
+	 */
+	private static ImgPlus<BitType> createImg(BinaryRaster mask) {
+		Img<BitType> img = new ArrayImgFactory<BitType>().create(new long[] {
+				mask.width(), mask.height() }, new BitType());
+		byte[] data = mask.data();
+		Cursor<BitType> cursor = img.localizingCursor();
+		while (cursor.hasNext()) {
+			cursor.fwd();
+			cursor.get().set(
+					data[mask.index(cursor.getIntPosition(0),
+							cursor.getIntPosition(1))] != 0);
+		}
+		return new ImgPlus<BitType>(img);
+	}
+
+	/**
+	 * Creates the trajectory of a crawling larva which turns now and then. The
+	 * body of 20 pixels bends with the turns, the time advances by 1/30 per
+	 * row.
+	 *
+	 * @param numRows
+	 *            number of rows
+	 * @param seed
+	 *            seed of the turns
+	 * @return the trajectory
+	 */
+	private static LarvaTrajectory createTrack(int numRows, long seed) {
+		Random random = new Random(seed);
+		LarvaTrajectory trajectory = new LarvaTrajectory(
+				LarvaTrajectory.NUM_COLUMNS, numRows);
+		double[] row = new double[LarvaTrajectory.NUM_COLUMNS];
+		double x = 0;
+		double y = 0;
+		double heading = 0;
+		double turn = 0;
+		for (int r = 0; r < numRows; r++) {
+			if (random.nextInt(50) == 0) {
+				turn = (random.nextDouble() - 0.5) * 0.2;
+			}
+			heading += turn;
+			x += Math.cos(heading);
+			y += Math.sin(heading);
+			// the body points backwards, bent against the turn
+			double bodyAngle = heading + 20 * turn;
+			row[LarvaTrajectory.HEAD_X] = x;
+			row[LarvaTrajectory.HEAD_Y] = y;
+			row[LarvaTrajectory.CENTER_X] = x - 10 * Math.cos(heading);
+			row[LarvaTrajectory.CENTER_Y] = y - 10 * Math.sin(heading);
+			row[LarvaTrajectory.TAIL_X] = row[LarvaTrajectory.CENTER_X] - 10
+					* Math.cos(bodyAngle);
+			row[LarvaTrajectory.TAIL_Y] = row[LarvaTrajectory.CENTER_Y] - 10
+					* Math.sin(bodyAngle);
+			row[LarvaTrajectory.CENTROID_X] = (x + row[LarvaTrajectory.CENTER_X]
+					+ row[LarvaTrajectory.TAIL_X]) / 3;
+			row[LarvaTrajectory.CENTROID_Y] = (y + row[LarvaTrajectory.CENTER_Y]
+					+ row[LarvaTrajectory.TAIL_Y]) / 3;
+			row[LarvaTrajectory.TIME] = r / 30.0;
+			trajectory.add(row);
+		}
+		return trajectory;
+	}
+}
@@ -1,14 +1,18 @@
 package org.knime.knip.larva;
 
-import java.util.ArrayList;
 import java.util.BitSet;
 
 import net.imglib2.Cursor;
 import net.imglib2.IterableInterval;
+import net.imglib2.img.Img;
 import net.imglib2.type.logic.BitType;
 
 import org.knime.knip.core.features.FeatureSet;
 import org.knime.knip.core.features.FeatureTargetListener;
+import org.knime.knip.larva.ops.LarvaMaskFeatures;
+import org.knime.knip.larva.ops.SkeletonGraph;
+import org.knime.knip.larva.ops.SpineDescriptor;
+import org.knime.knip.larva.ops.ThinningLee;
 
 /**
  * Calculation of larva segment features like positions of larva ends and
@@ -26,26 +30,88 @@ public class LarvaFeatureSet implements FeatureSet {
 	public static String[] FEATURE_NAMES = new String[] { "End1 X", "End1 Y",
 			"End2 X", "End2 Y", "Center X", "Center Y" };
 
+	/**
+	 * Names of the spine descriptor values in front of the midline points.
+	 */
+	private static final String[] SPINE_DESCRIPTOR_NAMES = new String[] {
+			"Arc Length", "Mean Curvature", "Max Curvature", "Curvature SD" };
+
 	private final BitSet m_enabled = new BitSet();
 
 	/**
 	 * Stores the interval to analyze.
 	 */
 	private IterableInterval<BitType> m_interval;
-	private long[] minPos;
+
+	/**
+	 * Buffer for the position of the cursor.
+	 */
+	private int[] m_pos = new int[2];
 
 	/**
 	 * Positions of larva end one.
 	 */
-	private int[] m_larvaEnd1Pos = new int[2];
+	private final int[] m_larvaEnd1Pos = new int[2];
 	/**
 	 * Positions of larva end two.
 	 */
-	private int[] m_larvaEnd2Pos = new int[2];
+	private final int[] m_larvaEnd2Pos = new int[2];
 	/**
 	 * Positions of larva center.
 	 */
-	private int[] m_larvaCenterPos = new int[2];
+	private final int[] m_larvaCenterPos = new int[2];
+
+	/**
+	 * Graph of the skeleton points.
+	 */
+	private final SkeletonGraph m_skeletonGraph;
+
+	/**
+	 * Thins the segments before the skeleton is analyzed, null if the
+	 * segments are already thinned.
+	 */
+	private final LarvaMaskFeatures<Img<BitType>> m_maskFeatures;
+
+	/**
+	 * Descriptor of the spine, null if disabled.
+	 */
+	private SpineDescriptor m_spineDescriptor;
+
+	/**
+	 * Creates a feature set which keeps all branches of the skeleton.
+	 */
+	public LarvaFeatureSet() {
+		this(0);
+	}
+
+	/**
+	 * @param minSpurLength
+	 *            branches of the skeleton between an end and a junction with
+	 *            less points are removed before the ends and the center are
+	 *            taken from the longest path
+	 */
+	public LarvaFeatureSet(int minSpurLength) {
+		this(minSpurLength, false);
+	}
+
+	/**
+	 * @param minSpurLength
+	 *            see {@link #LarvaFeatureSet(int)}
+	 * @param thinSegments
+	 *            if true, the segments are the whole larvae and are thinned
+	 *            (Lee) before the ends and the center are computed, so the
+	 *            thinning node is not needed
+	 */
+	public LarvaFeatureSet(int minSpurLength, boolean thinSegments) {
+		if (thinSegments) {
+			m_maskFeatures = new LarvaMaskFeatures<Img<BitType>>(
+					new ThinningLee<Img<BitType>>(true), minSpurLength);
+			m_skeletonGraph = m_maskFeatures.getSkeletonGraph();
+		} else {
+			m_maskFeatures = null;
+			m_skeletonGraph = new SkeletonGraph(minSpurLength);
+		}
+	}
 
 	/**
 	 * Calculates the positions of the larva points.
@@ -58,9 +124,6 @@ public class LarvaFeatureSet implements FeatureSet {
 
 		m_interval = interval;
 
-		minPos = new long[m_interval.numDimensions()];
-		m_interval.min(minPos);
-
 		int activeDims = 0;
 		for (int d = 0; d < m_interval.numDimensions(); d++) {
 			if (m_interval.dimension(d) > 1) {
@@ -72,16 +135,21 @@ public class LarvaFeatureSet implements FeatureSet {
 			System.out
 					.println("Larva features can only be calculated on 2-dimensional Bit Masks. Dims: "
 							+ activeDims);
-		} else if (m_enabled.cardinality() > 0) {
-			int[][] skeleton = getSkeleton(m_interval);
-			if (m_enabled.get(0, 3).cardinality() > 0) {
-				int[][] larvaEnds = getLarvaEnds(skeleton);
-				m_larvaEnd1Pos = larvaEnds[0];
-				m_larvaEnd2Pos = larvaEnds[1];
+		} else if (m_enabled.cardinality() > 0 || m_spineDescriptor != null) {
+			int length = m_maskFeatures != null ? m_maskFeatures
+					.computeSpine(m_interval) : getSkeleton(m_interval);
+			if (m_spineDescriptor != null) {
+				m_spineDescriptor.compute(m_skeletonGraph);
+			}
+			// End1 X ... End2 Y
+			int firstEnabled = m_enabled.nextSetBit(0);
+			if (firstEnabled >= 0 && firstEnabled < 4) {
+				setSkeletonPos(m_larvaEnd1Pos, length, 0);
+				setSkeletonPos(m_larvaEnd2Pos, length, length - 1);
 			}
-			if (m_enabled.get(4)) {
-				m_larvaCenterPos = skeleton[(int) Math
-						.floor(skeleton.length / 2)];
+			// Center X, Center Y
+			if (m_enabled.nextSetBit(4) >= 0) {
+				setSkeletonPos(m_larvaCenterPos, length, length / 2);
 			}
 		}
 	}
@@ -107,6 +175,67 @@ public class LarvaFeatureSet implements FeatureSet {
 		}
 	}
 
+	/**
+	 * Enables the spine descriptor, see {@link #getSpineDescriptorNames(int)}
+	 * and {@link #spineDescriptorValue(int)}.
+	 * 
+	 * @param numMidlinePoints
+	 *            number of equally spaced midline points, at least 3
+	 */
+	public void enableSpineDescriptor(int numMidlinePoints) {
+		m_spineDescriptor = new SpineDescriptor(numMidlinePoints);
+	}
+
+	/**
+	 * Gets the names of the spine descriptor values: arc length, curvature
+	 * statistics and the x- and y- coordinates of the midline points.
+	 * 
+	 * @param numMidlinePoints
+	 *            number of midline points
+	 * @return the names
+	 */
+	public static String[] getSpineDescriptorNames(int numMidlinePoints) {
+		String[] names = new String[SPINE_DESCRIPTOR_NAMES.length + 2
+				* numMidlinePoints];
+		System.arraycopy(SPINE_DESCRIPTOR_NAMES, 0, names, 0,
+				SPINE_DESCRIPTOR_NAMES.length);
+		for (int m = 0; m < numMidlinePoints; m++) {
+			names[SPINE_DESCRIPTOR_NAMES.length + 2 * m] = "Midline " + (m + 1)
+					+ " X";
+			names[SPINE_DESCRIPTOR_NAMES.length + 2 * m + 1] = "Midline "
+					+ (m + 1) + " Y";
+		}
+		return names;
+	}
+
+	/**
+	 * Gets a value of the enabled spine descriptor. The positions of the
+	 * midline points are shifted by one like the other positions.
+	 * 
+	 * @param id
+	 *            index of the value, see
+	 *            {@link #getSpineDescriptorNames(int)}
+	 * @return the value
+	 */
+	public double spineDescriptorValue(int id) {
+		switch (id) {
+		case 0:
+			return m_spineDescriptor.length();
+		case 1:
+			return m_spineDescriptor.meanCurvature();
+		case 2:
+			return m_spineDescriptor.maxCurvature();
+		case 3:
+			return m_spineDescriptor.curvatureSD();
+		default:
+			int m = (id - SPINE_DESCRIPTOR_NAMES.length) / 2;
+			if ((id - SPINE_DESCRIPTOR_NAMES.length) % 2 == 0) {
+				return m_spineDescriptor.midlineX(m) + 1;
+			}
+			return m_spineDescriptor.midlineY(m) + 1;
+		}
+	}
+
 	@Override
 	public void enable(int id) {
 		m_enabled.set(id);
@@ -128,139 +257,56 @@ public class LarvaFeatureSet implements FeatureSet {
 	}
 
 	/**
-	 * Sorts the points of a thinned larva beginning at one end.
+	 * Sorts the points of the spine of a thinned larva beginning at one end
+	 * (see {@link SkeletonGraph}). The points are kept in the graph, whose
+	 * buffers are reused for the next interval.
 	 * 
 	 * @param interval
 	 *            interval containing the points of the thinned larva
-	 * @return sorted skeleton points
+	 * @return number of sorted skeleton points, 0 if there are no points
 	 */
-	private int[][] getSkeleton(IterableInterval<BitType> interval) {
+	private int getSkeleton(IterableInterval<BitType> interval) {
 
-		// stores all white points (larva)
-		ArrayList<int[]> whitePoints = new ArrayList<int[]>();
+		m_skeletonGraph.reset((int) interval.min(0), (int) interval.min(1),
+				(int) interval.dimension(0), (int) interval.dimension(1));
 
+		// add all white points (larva)
 		Cursor<BitType> c = interval.localizingCursor();
 		BitType val = c.get();
-		int[] pos = new int[c.numDimensions()];
+		if (m_pos.length < c.numDimensions()) {
+			m_pos = new int[c.numDimensions()];
+		}
 		while (c.hasNext()) {
 			c.fwd();
 			if (val.get() == false) {
-				c.localize(pos);
-				int[] currentPos = new int[2];
-				currentPos[0] = pos[0];
-				currentPos[1] = pos[1];
-				whitePoints.add(currentPos);
+				c.localize(m_pos);
+				m_skeletonGraph.addPoint(m_pos[0], m_pos[1]);
 			} else {
 				System.out.println("background value");
 			}
 		}
-		if (whitePoints.isEmpty()) {
-			int[][] emptySkeleton = new int[2][2];
-			emptySkeleton[0][0] = 0;
-			emptySkeleton[0][1] = 0;
-			emptySkeleton[1][0] = 0;
-			emptySkeleton[1][1] = 0;
-			return emptySkeleton;
-		}
-		if (whitePoints.size() == 1) {
-			int[][] oneElementSkeleton = new int[2][2];
-			int[] point = whitePoints.get(0);
-			oneElementSkeleton[0][0] = point[0];
-			oneElementSkeleton[0][1] = point[1];
-			oneElementSkeleton[1][0] = point[0];
-			oneElementSkeleton[1][1] = point[1];
-			return oneElementSkeleton;
-		}
-
-		int[][] skeleton = new int[whitePoints.size()][2];
-
-		// find larvaEnd
-		for (int i = 0; i < whitePoints.size(); i++) {
-			if (isLarvaEnd(whitePoints, i)) {
-				skeleton[0] = whitePoints.get(i);
-				// System.out.println("larvaEnd found: " +
-				// skeleton[0][0] + ", "
-				// + skeleton[0][1]);
-				whitePoints.remove(i);
-				break;
-			}
-		}
-
-		// sort all white points, start at larvaEnd
-		for (int k = 0; k < skeleton.length - 1; k++) {
-			if (!whitePoints.isEmpty()) {
-				int neighbourIndex = getNeighbourIndex(whitePoints, skeleton[k]);
-				if (neighbourIndex < 0) {
-					break;
-				} else {
-					skeleton[k + 1] = whitePoints.get(neighbourIndex);
-					whitePoints.remove(neighbourIndex);
-				}
-			}
-		}
-		return skeleton;
+		return m_skeletonGraph.computeSpine();
 	}
 
 	/**
-	 * Checks if a point is a larva end.
+	 * Copies the position of a skeleton point.
 	 * 
-	 * @param whitePoints
-	 *            points of the larva
+	 * @param pos
+	 *            array to write the x- and y- coordinate to
+	 * @param length
+	 *            number of sorted skeleton points, if 0 the position is set to
+	 *            (0, 0)
 	 * @param index
-	 *            position of the point to check
-	 * @return true if point is a larva end, false if not
+	 *            index of the skeleton point
 	 */
-	private boolean isLarvaEnd(ArrayList<int[]> whitePoints, int index) {
-		int countNeighbours = 0;
-		int[] c = whitePoints.get(index);
-		for (int i = 0; i < whitePoints.size(); i++) {
-			int[] t = whitePoints.get(i);
-			if (t != c
-					&& (t[0] == c[0] + 1 || t[0] == c[0] - 1 || t[0] == c[0])
-					&& (t[1] == c[1] + 1 || t[1] == c[1] - 1 || t[1] == c[1])) {
-				countNeighbours++;
-			}
-		}
-		if (countNeighbours == 1) {
-			return true;
+	private void setSkeletonPos(int[] pos, int length, int index) {
+		if (length == 0) {
+			pos[0] = 0;
+			pos[1] = 0;
+		} else {
+			pos[0] = m_skeletonGraph.spineX(index);
+			pos[1] = m_skeletonGraph.spineY(index);
 		}
-		return false;
-	}
-
-	/**
-	 * Gets the position of the neighbored point.
-	 * 
-	 * @param whitePoints
-	 *            points of the larva
-	 * @param c
-	 *            point to check for a neighbor
-	 * @return position of the neighbor, -1 if no neighbor is in range
-	 */
-	private int getNeighbourIndex(ArrayList<int[]> whitePoints, int[] c) {
-		for (int i = 0; i < whitePoints.size(); i++) {
-			int[] t = whitePoints.get(i);
-			if (t != c
-					&& (t[0] == c[0] + 1 || t[0] == c[0] - 1 || t[0] == c[0])
-					&& (t[1] == c[1] + 1 || t[1] == c[1] - 1 || t[1] == c[1])) {
-				return i;
-			}
-		}
-		return -1;
-	}
-
-	/**
-	 * Get the position of both ends of a larva skeleton.
-	 * 
-	 * @param skeleton sorted points of a larva
-	 * @return the position of both ends of a larva
-	 */
-	private int[][] getLarvaEnds(int[][] skeleton) {
-		// front end and back end of the larva [end ID][0/1 for x/y
-		// coordinate]
-		int[][] larvaEnds = new int[2][2];
-		larvaEnds[0] = skeleton[0];
-		larvaEnds[1] = skeleton[skeleton.length - 1];
-		return larvaEnds;
 	}
 
 }
@@ -3,6 +3,7 @@ package org.knime.knip.larva;
 import java.util.Arrays;
 import java.util.BitSet;
 import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import net.imglib2.IterableInterval;
 import net.imglib2.meta.CalibratedSpace;
@@ -14,14 +15,20 @@ import org.knime.core.data.DataColumnSpec;
 import org.knime.core.data.DataColumnSpecCreator;
 import org.knime.core.data.def.DoubleCell;
 import org.knime.core.node.defaultnodesettings.DialogComponent;
+import org.knime.core.node.defaultnodesettings.DialogComponentBoolean;
+import org.knime.core.node.defaultnodesettings.DialogComponentNumber;
 import org.knime.core.node.defaultnodesettings.DialogComponentStringListSelection;
 import org.knime.core.node.defaultnodesettings.SettingsModel;
+import org.knime.core.node.defaultnodesettings.SettingsModelBoolean;
+import org.knime.core.node.defaultnodesettings.SettingsModelIntegerBounded;
 import org.knime.core.node.defaultnodesettings.SettingsModelStringArray;
 import org.knime.knip.base.nodes.features.providers.FeatureSetProvider;
 import org.knime.knip.core.features.FeatureFactory;
 
 /**
- * Provider for the larva segment feature set.
+ * Provider for the larva segment feature set. After the column specs are
+ * created, {@link #calcAndAddFeatures(ValuePair, List)} may be called from
+ * several threads concurrently.
  * 
  * @author dietzc, hornm, wildnerm (University of Konstanz)
  */
@@ -37,13 +44,57 @@ public class LarvaFeatureSetProvider
 				new String[] {});
 	}
 
+	private static SettingsModelIntegerBounded createMinSpurLengthModel() {
+		return new SettingsModelIntegerBounded("larva_min_spur_length", 0,
+				0, Integer.MAX_VALUE);
+	}
+
+	private static SettingsModelBoolean createThinSegmentsModel() {
+		return new SettingsModelBoolean("larva_thin_segments", false);
+	}
+
+	private static SettingsModelBoolean createSpineDescriptorModel() {
+		return new SettingsModelBoolean("larva_spine_descriptor", false);
+	}
+
+	private static SettingsModelIntegerBounded createNumMidlinePointsModel() {
+		return new SettingsModelIntegerBounded("larva_midline_points", 11, 3,
+				1000);
+	}
+
 	/*
 	 * The feature factory
 	 */
 	private FeatureFactory m_featFac;
 
+	/*
+	 * The feature sets which are updated directly for each ROI and are not in
+	 * use at the moment. A set is taken for one ROI and returned afterwards,
+	 * so ROIs can be processed concurrently and the buffers are reused.
+	 */
+	private ConcurrentLinkedQueue<LarvaFeatureSet> m_featSets;
+
+	/*
+	 * The ids of the selected features in the order of the columns
+	 */
+	private int[] m_featIds;
+
 	private SettingsModelStringArray m_genFeat;
 
+	private SettingsModelIntegerBounded m_minSpurLength;
+
+	private SettingsModelBoolean m_thinSegments;
+
+	private SettingsModelBoolean m_spineDescriptor;
+
+	private SettingsModelIntegerBounded m_numMidlinePoints;
+
+	/*
+	 * Number of spine descriptor values appended to the features, 0 if
+	 * disabled
+	 */
+	private int m_numDescriptorValues;
+
 	@Override
 	public void initAndAddDialogComponents(
 			List<DialogComponent> dialogComponents) {
@@ -51,6 +102,16 @@ public class LarvaFeatureSetProvider
 		dialogComponents.add(new DialogComponentStringListSelection(
 				createFeatModel(), "Larva Features", Arrays.asList(FEATURES),
 				false, 5));
+		dialogComponents.add(new DialogComponentNumber(
+				createMinSpurLengthModel(), "Minimum spur length", 1));
+		dialogComponents.add(new DialogComponentBoolean(
+				createThinSegmentsModel(),
+				"Thin the segments (not thinned before)"));
+		dialogComponents.add(new DialogComponentBoolean(
+				createSpineDescriptorModel(),
+				"Spine descriptor (arc length, curvature, midline)"));
+		dialogComponents.add(new DialogComponentNumber(
+				createNumMidlinePointsModel(), "Midline points", 1));
 	}
 
 	@Override
@@ -71,12 +132,51 @@ public class LarvaFeatureSetProvider
 		}
 		m_featFac.initFeatureFactory(selection);
 
+		m_featIds = new int[selection.cardinality()];
+		for (int i = selection.nextSetBit(0), k = 0; i >= 0; i = selection
+				.nextSetBit(i + 1), k++) {
+			m_featIds[k] = i;
+		}
+
 		// create outspec according to the selected features
 		String[] featNames = m_featFac.getFeatureNames();
 		for (int i = 0; i < featNames.length; i++) {
 			columnSpecs.add(new DataColumnSpecCreator(featNames[i],
 					DoubleCell.TYPE).createSpec());
 		}
+
+		// the spine descriptor is computed in the same pass and appended
+		m_numDescriptorValues = 0;
+		if (m_spineDescriptor.getBooleanValue()) {
+			String[] descriptorNames = LarvaFeatureSet
+					.getSpineDescriptorNames(m_numMidlinePoints.getIntValue());
+			for (int i = 0; i < descriptorNames.length; i++) {
+				columnSpecs.add(new DataColumnSpecCreator(descriptorNames[i],
+						DoubleCell.TYPE).createSpec());
+			}
+			m_numDescriptorValues = descriptorNames.length;
+		}
+
+		// the sets of a previous execution are released
+		m_featSets = new ConcurrentLinkedQueue<LarvaFeatureSet>();
+	}
+
+	/**
+	 * Creates a feature set for the selected features.
+	 * 
+	 * @return the feature set
+	 */
+	private LarvaFeatureSet createFeatureSet() {
+		LarvaFeatureSet featSet = new LarvaFeatureSet(
+				m_minSpurLength.getIntValue(),
+				m_thinSegments.getBooleanValue());
+		for (int i = 0; i < m_featIds.length; i++) {
+			featSet.enable(m_featIds[i]);
+		}
+		if (m_numDescriptorValues > 0) {
+			featSet.enableSpineDescriptor(m_numMidlinePoints.getIntValue());
+		}
+		return featSet;
 	}
 
 	@Override
@@ -84,11 +184,24 @@ public class LarvaFeatureSetProvider
 			ValuePair<IterableInterval<BitType>, CalibratedSpace> roi,
 			List<DataCell> resCells) {
 
-		m_featFac.updateFeatureTarget(roi.a);
+		// the feature set reuses its buffers, so it is updated directly
+		// instead of dispatching the ROI through the feature factory
+		LarvaFeatureSet featSet = m_featSets.poll();
+		if (featSet == null) {
+			featSet = createFeatureSet();
+		}
+		try {
+			featSet.iiUpdated(roi.a);
 
-		// add larva features
-		for (int featID = 0; featID < m_featFac.getNumFeatures(); featID++) {
-			resCells.add(new DoubleCell(m_featFac.getFeatureValue(featID)));
+			// add larva features
+			for (int featID = 0; featID < m_featIds.length; featID++) {
+				resCells.add(new DoubleCell(featSet.value(m_featIds[featID])));
+			}
+			for (int i = 0; i < m_numDescriptorValues; i++) {
+				resCells.add(new DoubleCell(featSet.spineDescriptorValue(i)));
+			}
+		} finally {
+			m_featSets.offer(featSet);
 		}
 	}
 
@@ -100,6 +213,10 @@ public class LarvaFeatureSetProvider
 	@Override
 	public void initAndAddSettingsModels(List<SettingsModel> settingsModels) {
 		settingsModels.add(m_genFeat = createFeatModel());
+		settingsModels.add(m_minSpurLength = createMinSpurLengthModel());
+		settingsModels.add(m_thinSegments = createThinSegmentsModel());
+		settingsModels.add(m_spineDescriptor = createSpineDescriptorModel());
+		settingsModels.add(m_numMidlinePoints = createNumMidlinePointsModel());
 	}
 
 	@Override
@@ -0,0 +1,48 @@
+package org.knime.knip.larva;
+
+import net.imglib2.type.numeric.RealType;
+
+import org.knime.base.data.aggregation.AggregationOperator;
+import org.knime.base.data.aggregation.GlobalSettings;
+import org.knime.base.data.aggregation.OperatorColumnSettings;
+
+/**
+ * Counts the foreground pixels of binary images in bins of 10 x 10 pixels
+ * and returns the counts as a small image with one pixel per bin.
+ * 
+ * @author wildnerm, University of Konstanz
+ * 
+ */
+public class LarvaFineGridCountsOperator<T extends RealType<T>> extends
+		LarvaGridOperator<T> {
+
+	/* label */
+	private final static String LABEL = "Grid Counts (10 Pixel Bins, Int Result)";
+
+	/* width of a bin in pixels */
+	private static final int BIN_SIZE = 10;
+
+	public LarvaFineGridCountsOperator() {
+		super(LABEL, 0, 0, BIN_SIZE, true);
+	}
+
+	/**
+	 * @param globalSettings
+	 *            the global settings
+	 */
+	public LarvaFineGridCountsOperator(GlobalSettings globalSettings) {
+		super(LABEL, globalSettings, 0, 0, BIN_SIZE, true);
+	}
+
+	@Override
+	public String getDescription() {
+		return "Counts the foreground pixels in bins of 10 x 10 pixels and "
+				+ "returns the counts as an int image with one pixel per bin.";
+	}
+
+	@Override
+	public AggregationOperator createInstance(GlobalSettings globalSettings,
+			OperatorColumnSettings opColSettings) {
+		return new LarvaFineGridCountsOperator<T>(globalSettings);
+	}
+}
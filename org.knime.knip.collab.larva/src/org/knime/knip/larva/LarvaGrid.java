@@ -0,0 +1,369 @@
+package org.knime.knip.larva;
+
+import java.util.Arrays;
+
+import net.imglib2.Cursor;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.basictypeaccess.array.BitArray;
+import net.imglib2.meta.ImgPlus;
+import net.imglib2.type.logic.BitType;
+import net.imglib2.type.numeric.RealType;
+
+/**
+ * Foreground counts of binary images in a grid of bins. This is the partial
+ * result of {@link LarvaGridOperator}: grids with the same geometry (image
+ * size and bins) can be filled independently, e.g. for chunks of a table or
+ * for new recordings, and merged by adding their counts.
+ *
+ * @author wildnerm, University of Konstanz
+ *
+ */
+public final class LarvaGrid {
+
+	/* size of the images the grid was created for */
+	private final int m_width;
+
+	private final int m_height;
+
+	/* width of a bin in pixels */
+	private final int m_binWidthX;
+
+	private final int m_binWidthY;
+
+	/* number of bins, pixels behind the last bin are added to the last bin */
+	private final int m_numBinsX;
+
+	private final int m_numBinsY;
+
+	/* the counts of the bins, row by row */
+	private final int[] m_counts;
+
+	/* bin of each column and offset of the bin row of each row of the last
+	 * image in m_counts */
+	private int[] m_xBins;
+
+	private int[] m_yBins;
+
+	/**
+	 * Creates an empty grid.
+	 *
+	 * @param width
+	 *            width of the images
+	 * @param height
+	 *            height of the images
+	 * @param binWidthX
+	 *            width of a bin in pixels
+	 * @param binWidthY
+	 *            height of a bin in pixels
+	 * @param numBinsX
+	 *            number of bins in x- direction
+	 * @param numBinsY
+	 *            number of bins in y- direction
+	 */
+	public LarvaGrid(int width, int height, int binWidthX, int binWidthY,
+			int numBinsX, int numBinsY) {
+		m_width = width;
+		m_height = height;
+		m_binWidthX = binWidthX;
+		m_binWidthY = binWidthY;
+		m_numBinsX = numBinsX;
+		m_numBinsY = numBinsY;
+		m_counts = new int[numBinsX * numBinsY];
+	}
+
+	/**
+	 * Creates a grid with a fixed number of bins whose size is a fraction of
+	 * the image size.
+	 *
+	 * @param width
+	 *            width of the images
+	 * @param height
+	 *            height of the images
+	 * @param numBins
+	 *            number of bins per dimension
+	 * @param binFactor
+	 *            width of a bin as fraction of the image size
+	 * @return the empty grid
+	 */
+	public static LarvaGrid createRelative(int width, int height, int numBins,
+			double binFactor) {
+		return new LarvaGrid(width, height, Math.max(1,
+				(int) (width * binFactor)), Math.max(1,
+				(int) (height * binFactor)), numBins, numBins);
+	}
+
+	/**
+	 * Creates a grid of square bins with a fixed size.
+	 *
+	 * @param width
+	 *            width of the images
+	 * @param height
+	 *            height of the images
+	 * @param binSize
+	 *            width of a bin in pixels
+	 * @return the empty grid
+	 */
+	public static LarvaGrid createFixed(int width, int height, int binSize) {
+		return new LarvaGrid(width, height, binSize, binSize,
+				(width + binSize - 1) / binSize, (height + binSize - 1)
+						/ binSize);
+	}
+
+	/**
+	 * Adds the foreground (positive) pixels of an image. All planes are added
+	 * to the same grid, pixels behind the last bin are added to the last bin.
+	 *
+	 * @param img
+	 *            the image
+	 */
+	public <T extends RealType<T>> void add(ImgPlus<T> img) {
+		int width = (int) img.dimension(0);
+		int height = (int) img.dimension(1);
+		if (m_xBins == null || m_xBins.length != width) {
+			m_xBins = createBinTable(width, m_binWidthX, m_numBinsX, 1);
+		}
+		if (m_yBins == null || m_yBins.length != height) {
+			m_yBins = createBinTable(height, m_binWidthY, m_numBinsY,
+					m_numBinsX);
+		}
+
+		if (!addBitArray(img.getImg())) {
+			Cursor<T> inCursor = img.cursor();
+
+			while (inCursor.hasNext()) {
+				inCursor.fwd();
+				if (inCursor.get().getRealDouble() > 0) {
+					m_counts[m_yBins[inCursor.getIntPosition(1)]
+							+ m_xBins[inCursor.getIntPosition(0)]]++;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Counts the foreground pixels of a binary image which is stored in an
+	 * {@link ArrayImg}. The bits of the backing array are scanned row by row
+	 * and only the set bits are visited.
+	 *
+	 * @param img
+	 *            the image
+	 * @return false if the image is not an image of {@link BitType} backed by
+	 *         a {@link BitArray}
+	 */
+	private boolean addBitArray(Img<?> img) {
+		// other types may be packed into a BitArray with several bits per
+		// pixel
+		if (!(img instanceof ArrayImg) || img.size() == 0
+				|| !(img.firstElement() instanceof BitType)) {
+			return false;
+		}
+		Object access = ((ArrayImg<?, ?>) img).update(null);
+		if (!(access instanceof BitArray)) {
+			return false;
+		}
+		int[] data = (int[]) ((BitArray) access).getCurrentStorageArray();
+
+		int width = m_xBins.length;
+		int height = m_yBins.length;
+		long numRows = img.size() / width;
+		int start = 0;
+		int y = 0;
+		for (long row = 0; row < numRows; row++, start += width) {
+			int yBin = m_yBins[y];
+			int end = start + width;
+			int i = start;
+			while (i < end) {
+				int bits = data[i >>> 5] >>> (i & 31);
+				if (bits == 0) {
+					// no further foreground pixel in this int
+					i = (i | 31) + 1;
+					continue;
+				}
+				i += Integer.numberOfTrailingZeros(bits);
+				if (i >= end) {
+					break;
+				}
+				m_counts[yBin + m_xBins[i - start]]++;
+				i++;
+			}
+			if (++y == height) {
+				y = 0;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Adds the counts of another grid.
+	 *
+	 * @param other
+	 *            grid with the same geometry
+	 * @throws IllegalArgumentException
+	 *             if the geometry of the grids differs
+	 */
+	public void merge(LarvaGrid other) {
+		if (!isCompatible(other)) {
+			throw new IllegalArgumentException(
+					"Grids with different geometry can not be merged: "
+							+ this + ", " + other);
+		}
+		for (int i = 0; i < m_counts.length; i++) {
+			m_counts[i] += other.m_counts[i];
+		}
+	}
+
+	/**
+	 * @param other
+	 *            another grid
+	 * @return true if both grids have the same image size and bins
+	 */
+	public boolean isCompatible(LarvaGrid other) {
+		return m_width == other.m_width && m_height == other.m_height
+				&& m_binWidthX == other.m_binWidthX
+				&& m_binWidthY == other.m_binWidthY
+				&& m_numBinsX == other.m_numBinsX
+				&& m_numBinsY == other.m_numBinsY;
+	}
+
+	/**
+	 * @return a grid with the same geometry and counts
+	 */
+	public LarvaGrid copy() {
+		LarvaGrid copy = new LarvaGrid(m_width, m_height, m_binWidthX,
+				m_binWidthY, m_numBinsX, m_numBinsY);
+		System.arraycopy(m_counts, 0, copy.m_counts, 0, m_counts.length);
+		return copy;
+	}
+
+	/**
+	 * Copies the counts row by row into an array.
+	 *
+	 * @param target
+	 *            array of at least numBinsX * numBinsY values
+	 */
+	public void getCounts(int[] target) {
+		System.arraycopy(m_counts, 0, target, 0, m_counts.length);
+	}
+
+	/**
+	 * Sets the counts, e.g. of a stored grid which should be updated.
+	 *
+	 * @param source
+	 *            the counts row by row, numBinsX * numBinsY values
+	 * @throws IllegalArgumentException
+	 *             if the number of counts differs from the number of bins
+	 */
+	public void setCounts(int[] source) {
+		if (source.length != m_counts.length) {
+			throw new IllegalArgumentException("Expected " + m_counts.length
+					+ " counts for " + this + ", got " + source.length);
+		}
+		System.arraycopy(source, 0, m_counts, 0, m_counts.length);
+	}
+
+	/**
+	 * Expands the grid to the image size, each pixel gets the count of its
+	 * bin (at most 65535).
+	 *
+	 * @param target
+	 *            unsigned short pixels of an image of width x height, row by
+	 *            row
+	 */
+	public void getExpandedCounts(short[] target) {
+		int[] xBins = createBinTable(m_width, m_binWidthX, m_numBinsX, 1);
+		int[] yBins = createBinTable(m_height, m_binWidthY, m_numBinsY,
+				m_numBinsX);
+		for (int y = 0, index = 0; y < m_height; y++) {
+			int yBin = yBins[y];
+			for (int x = 0; x < m_width; x++, index++) {
+				// saturate instead of overflowing the unsigned shorts
+				target[index] = (short) Math.min(m_counts[yBin + xBins[x]],
+						0xffff);
+			}
+		}
+	}
+
+	/**
+	 * @param xBin
+	 *            bin in x- direction
+	 * @param yBin
+	 *            bin in y- direction
+	 * @return number of foreground pixels in the bin
+	 */
+	public int getCount(int xBin, int yBin) {
+		return m_counts[yBin * m_numBinsX + xBin];
+	}
+
+	/**
+	 * @return width of the images
+	 */
+	public int getWidth() {
+		return m_width;
+	}
+
+	/**
+	 * @return height of the images
+	 */
+	public int getHeight() {
+		return m_height;
+	}
+
+	/**
+	 * @return number of bins in x- direction
+	 */
+	public int getNumBinsX() {
+		return m_numBinsX;
+	}
+
+	/**
+	 * @return number of bins in y- direction
+	 */
+	public int getNumBinsY() {
+		return m_numBinsY;
+	}
+
+	/**
+	 * Assigns each position of a dimension to a bin of the grid.
+	 *
+	 * @param size
+	 *            size of the dimension
+	 * @param binWidth
+	 *            width of a bin
+	 * @param numBins
+	 *            number of bins, positions behind the last bin are added to
+	 *            the last bin
+	 * @param stride
+	 *            distance of neighboring bins in the count array
+	 * @return the index offset of the bin of each position
+	 */
+	private static int[] createBinTable(int size, int binWidth, int numBins,
+			int stride) {
+		int[] bins = new int[size];
+		for (int pos = 0; pos < size; pos++) {
+			bins[pos] = Math.min(pos / binWidth, numBins - 1) * stride;
+		}
+		return bins;
+	}
+
+	@Override
+	public String toString() {
+		return "LarvaGrid[" + m_width + "x" + m_height + ", " + m_numBinsX
+				+ "x" + m_numBinsY + " bins of " + m_binWidthX + "x"
+				+ m_binWidthY + "]";
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof LarvaGrid)) {
+			return false;
+		}
+		LarvaGrid other = (LarvaGrid) obj;
+		return isCompatible(other) && Arrays.equals(m_counts, other.m_counts);
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(m_counts);
+	}
+}
@@ -0,0 +1,47 @@
+package org.knime.knip.larva;
+
+import net.imglib2.type.numeric.RealType;
+
+import org.knime.base.data.aggregation.AggregationOperator;
+import org.knime.base.data.aggregation.GlobalSettings;
+import org.knime.base.data.aggregation.OperatorColumnSettings;
+
+/**
+ * Counts the foreground pixels of binary images in the default grid of
+ * {@link LarvaGridOperator}, but returns the counts as a small image with one
+ * pixel per bin.
+ * 
+ * @author wildnerm, University of Konstanz
+ * 
+ */
+public class LarvaGridCountsOperator<T extends RealType<T>> extends
+		LarvaGridOperator<T> {
+
+	/* label */
+	private final static String LABEL = "Grid Counts (Int Result)";
+
+	public LarvaGridCountsOperator() {
+		super(LABEL, grid_bins, grid_factor, 0, true);
+	}
+
+	/**
+	 * @param globalSettings
+	 *            the global settings
+	 */
+	public LarvaGridCountsOperator(GlobalSettings globalSettings) {
+		super(LABEL, globalSettings, grid_bins, grid_factor, 0, true);
+	}
+
+	@Override
+	public String getDescription() {
+		return "Counts the foreground pixels in a grid of " + grid_bins + " x "
+				+ grid_bins + " bins and returns the counts as a " + grid_bins
+				+ " x " + grid_bins + " int image.";
+	}
+
+	@Override
+	public AggregationOperator createInstance(GlobalSettings globalSettings,
+			OperatorColumnSettings opColSettings) {
+		return new LarvaGridCountsOperator<T>(globalSettings);
+	}
+}
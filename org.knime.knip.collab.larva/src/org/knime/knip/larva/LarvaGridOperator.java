@@ -2,10 +2,14 @@ package org.knime.knip.larva;
 
 import java.io.IOException;
 
-import net.imglib2.Cursor;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImg;
 import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.img.basictypeaccess.array.IntArray;
+import net.imglib2.img.basictypeaccess.array.ShortArray;
 import net.imglib2.meta.ImgPlus;
 import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.IntType;
 import net.imglib2.type.numeric.integer.UnsignedShortType;
 
 import org.knime.base.data.aggregation.AggregationOperator;
@@ -18,7 +22,15 @@ import org.knime.knip.base.data.img.ImgPlusCell;
 import org.knime.knip.base.data.img.ImgPlusValue;
 
 /**
- * Pixel-wise addition of images
+ * Counts the foreground pixels of binary images in a coarse grid. By default
+ * the grid has 11 x 11 bins of 9% of the image size each (the remaining
+ * pixels are added to the last bins) and the result is an image of the size
+ * of the first image, where each pixel holds the count of its bin. Subclasses
+ * can use other bins and return the grid itself as a small image with one
+ * pixel per bin.
+ * 
+ * The counts are kept in a {@link LarvaGrid}, so grids of several instances
+ * (e.g. for chunks of a table) can be combined before the result is created.
  * 
  * @author Christian Dietz, University of Konstanz
  * 
@@ -26,31 +38,88 @@ import org.knime.knip.base.data.img.ImgPlusValue;
 public class LarvaGridOperator<T extends RealType<T>> extends
 		ImgAggregrationOperation {
 
-	private static final double grid_y_factor = 0.09;
+	/* width of a bin of the default grid as fraction of the image size */
+	protected static final double grid_factor = 0.09;
 
-	private static final double grid_x_factor = 0.09;
+	/* number of bins of the default grid */
+	protected static final int grid_bins = (int) (1 / grid_factor);
 
 	/* label */
 	private final static String LABEL = "Grid Image (Unsigned Short Result)";
 
-	/* the tempory result holding the pixel-wise mean */
-	private ImgPlus<UnsignedShortType> m_resImg = null;
+	/* number of bins per dimension, if the bins do not have a fixed size */
+	private final int m_numBins;
+
+	/* width of a bin as fraction of the image size */
+	private final double m_binFactor;
 
-	/* the tempory result holding the pixel-wise mean */
-	private short[][] m_initGrid = null;
+	/* width of a bin in pixels, 0 if the number of bins is fixed */
+	private final int m_binSize;
+
+	/* if true, the grid is returned with one pixel per bin */
+	private final boolean m_compact;
+
+	/* the tempory result of the size of the first image */
+	private ImgPlus<UnsignedShortType> m_resImg = null;
 
-	private int m_gridYWidth;
+	/* the tempory result with one pixel per bin */
+	private ImgPlus<IntType> m_gridImg = null;
 
-	private int m_gridXWidth;
+	/* the counts of the bins */
+	private LarvaGrid m_grid = null;
 
 	public LarvaGridOperator() {
 		super(LABEL, LABEL, LABEL);
+		m_numBins = grid_bins;
+		m_binFactor = grid_factor;
+		m_binSize = 0;
+		m_compact = false;
 	}
 
 	/**
          */
 	public LarvaGridOperator(GlobalSettings globalSettings) {
 		super(LABEL, LABEL, globalSettings);
+		m_numBins = grid_bins;
+		m_binFactor = grid_factor;
+		m_binSize = 0;
+		m_compact = false;
+	}
+
+	/**
+	 * Creates a grid with other bins or output.
+	 * 
+	 * @param label
+	 *            the label of the operator
+	 * @param numBins
+	 *            number of bins per dimension if binSize is 0
+	 * @param binFactor
+	 *            width of a bin as fraction of the image size if binSize is 0
+	 * @param binSize
+	 *            width of a bin in pixels, 0 for a fixed number of bins
+	 * @param compact
+	 *            if true, the result has one pixel per bin instead of the size
+	 *            of the first image
+	 */
+	protected LarvaGridOperator(String label, int numBins, double binFactor,
+			int binSize, boolean compact) {
+		super(label, label, label);
+		m_numBins = numBins;
+		m_binFactor = binFactor;
+		m_binSize = binSize;
+		m_compact = compact;
+	}
+
+	/**
+	 * Same as {@link #LarvaGridOperator(String, int, double, int, boolean)}.
+	 */
+	protected LarvaGridOperator(String label, GlobalSettings globalSettings,
+			int numBins, double binFactor, int binSize, boolean compact) {
+		super(label, label, globalSettings);
+		m_numBins = numBins;
+		m_binFactor = binFactor;
+		m_binSize = binSize;
+		m_compact = compact;
 	}
 
 	/**
@@ -62,33 +131,16 @@ public class LarvaGridOperator<T extends RealType<T>> extends
 			return true;
 		}
 		ImgPlus<T> img = ((ImgPlusValue<T>) cell).getImgPlus();
-		if (m_resImg == null) {
-			m_resImg = new ImgPlus<UnsignedShortType>(
-					new ArrayImgFactory<UnsignedShortType>().create(new long[] {
-							img.dimension(0), img.dimension(1) },
-							new UnsignedShortType()), img);
-
-			m_gridXWidth = (int) (m_resImg.dimension(0) * grid_x_factor);
-			m_gridYWidth = (int) (m_resImg.dimension(1) * grid_y_factor);
-
-			m_initGrid = new short[(int) (1 / grid_x_factor)][(int) (1 / grid_y_factor)];
-
+		if (m_grid == null) {
+			m_grid = createGrid((int) img.dimension(0),
+					(int) img.dimension(1));
+		}
+		if (m_resImg == null && m_gridImg == null) {
+			createResultImg(img);
 		}
 
 		try {
-
-			Cursor<T> inCursor = img.cursor();
-
-			while (inCursor.hasNext()) {
-				inCursor.fwd();
-				if (inCursor.get().getRealDouble() > 0) {
-					m_initGrid[(int) Math.min(inCursor.getIntPosition(0)
-							/ m_gridXWidth, m_initGrid.length - 1)][(int) Math
-							.min(inCursor.getIntPosition(1) / m_gridYWidth,
-									m_initGrid[0].length - 1)]++;
-				}
-			}
-
+			m_grid.add(img);
 		} catch (IllegalArgumentException e) {
 			setSkipMessage("Images are not compatible (dimensions, iteration order, etc.): "
 					+ e.getMessage());
@@ -98,6 +150,71 @@ public class LarvaGridOperator<T extends RealType<T>> extends
 		return false;
 	}
 
+	/**
+	 * Creates an empty grid with the bins of this operator, e.g. to count a
+	 * chunk of the images independently (see
+	 * {@link #mergePartialResult(LarvaGrid)}).
+	 * 
+	 * @param width
+	 *            width of the images
+	 * @param height
+	 *            height of the images
+	 * @return the empty grid
+	 */
+	public LarvaGrid createGrid(int width, int height) {
+		if (m_binSize > 0) {
+			return LarvaGrid.createFixed(width, height, m_binSize);
+		}
+		return LarvaGrid.createRelative(width, height, m_numBins,
+				m_binFactor);
+	}
+
+	/**
+	 * @return the counts of the images added so far, null if there are none
+	 */
+	public LarvaGrid getPartialResult() {
+		return m_grid;
+	}
+
+	/**
+	 * Adds the counts of a grid which was filled independently, e.g. by
+	 * another instance for a chunk of the images or by an earlier run.
+	 * 
+	 * @param partial
+	 *            grid with the same geometry as the grid of this operator
+	 * @throws IllegalArgumentException
+	 *             if the geometry of the grids differs
+	 */
+	public void mergePartialResult(LarvaGrid partial) {
+		if (m_grid == null) {
+			m_grid = partial.copy();
+		} else {
+			m_grid.merge(partial);
+		}
+	}
+
+	/**
+	 * Creates the result image, which takes the metadata of the first image.
+	 * 
+	 * @param img
+	 *            the first image, null if there is none
+	 */
+	private void createResultImg(ImgPlus<T> img) {
+		if (m_compact) {
+			Img<IntType> res = new ArrayImgFactory<IntType>().create(
+					new long[] { m_grid.getNumBinsX(), m_grid.getNumBinsY() },
+					new IntType());
+			m_gridImg = img == null ? new ImgPlus<IntType>(res)
+					: new ImgPlus<IntType>(res, img);
+		} else {
+			Img<UnsignedShortType> res = new ArrayImgFactory<UnsignedShortType>()
+					.create(new long[] { m_grid.getWidth(), m_grid.getHeight() },
+							new UnsignedShortType());
+			m_resImg = img == null ? new ImgPlus<UnsignedShortType>(res)
+					: new ImgPlus<UnsignedShortType>(res, img);
+		}
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -111,17 +228,21 @@ public class LarvaGridOperator<T extends RealType<T>> extends
 	 */
 	@Override
 	protected DataCell getResultInternal() {
+		if (m_resImg == null && m_gridImg == null) {
+			// only partial results were merged
+			createResultImg(null);
+		}
 		try {
-			Cursor<UnsignedShortType> cursor = m_resImg.cursor();
-			while (cursor.hasNext()) {
-				cursor.fwd();
-				cursor.get()
-						.set(m_initGrid[(int) Math.min(cursor.getIntPosition(0)
-								/ m_gridXWidth, m_initGrid.length - 1)][(int) Math
-								.min(cursor.getIntPosition(1) / m_gridYWidth,
-										m_initGrid[0].length - 1)]);
+			// the result images were created by an ArrayImgFactory, hence they
+			// are filled on their backing arrays
+			if (m_compact) {
+				m_grid.getCounts((int[]) ((IntArray) ((ArrayImg<?, ?>) m_gridImg
+						.getImg()).update(null)).getCurrentStorageArray());
+				return getImgPlusCellFactory().createCell(m_gridImg);
 			}
 
+			m_grid.getExpandedCounts((short[]) ((ShortArray) ((ArrayImg<?, ?>) m_resImg
+					.getImg()).update(null)).getCurrentStorageArray());
 			return getImgPlusCellFactory().createCell(m_resImg);
 		} catch (IOException e) {
 			throw new RuntimeException(e);
@@ -134,6 +255,8 @@ public class LarvaGridOperator<T extends RealType<T>> extends
 	@Override
 	protected void resetInternal() {
 		m_resImg = null;
+		m_gridImg = null;
+		m_grid = null;
 	}
 
 	@Override
@@ -0,0 +1,281 @@
+package org.knime.knip.larva;
+
+import java.util.Arrays;
+
+/**
+ * Computes the movement, posture and orientation features of a larva for a
+ * range of rows of a {@link LarvaTrajectory}. Each feature is computed in its
+ * own loop over the primitive columns, no objects are created per row.
+ *
+ * Angles are in degrees. The absolute angles are measured against the x-axis
+ * (with the y-axis pointing down) and are between -180 and 180, or
+ * {@link Double#POSITIVE_INFINITY} if both points are equal. Velocities are
+ * 0 if the time does not change.
+ *
+ * The body angle is accumulated over the rows. Its last value and the last
+ * valid absolute angle are kept, so a trajectory can be computed in several
+ * calls, e.g. if new rows are appended.
+ *
+ * @author wildnerm, University of Konstanz
+ */
+public final class LarvaKinematics {
+
+	/** absolute angle of the body axis (tail to center) */
+	public static final int ALPHA_ABS = 0;
+	/** body angle, the absolute angle accumulated over the rows */
+	public static final int ALPHA = 1;
+	/** head angle, the angle between the body axis and center to head */
+	public static final int THETA = 2;
+	/** change of the body angle per time */
+	public static final int REORIENT_SPEED = 3;
+	/** speed of the centroid */
+	public static final int V_CENTROID = 4;
+	/** speed of the head */
+	public static final int V_HEAD = 5;
+	/** distance of the center to the previous center */
+	public static final int V_CENTER = 6;
+	/** distance of the center to the container, -1 if there is none */
+	public static final int DIST_TO_CONTAINER = 7;
+	/** length of the larva from tail over center to head */
+	public static final int LENGTH = 8;
+	/** number of features */
+	public static final int NUM_FEATURES = 9;
+
+	/* the features of the last computed rows, feature by feature */
+	private final double[][] m_features = new double[NUM_FEATURES][0];
+
+	/* last valid absolute angle and last body angle */
+	private double m_prevAlphaAbs = 0;
+	private double m_prevAlphaRel = 0;
+
+	private boolean m_hasContainer = false;
+	private double m_containerX;
+	private double m_containerY;
+
+	/**
+	 * Sets the position of the container, the distance to it is computed
+	 * for each row.
+	 *
+	 * @param x
+	 *            x- position of the container
+	 * @param y
+	 *            y- position of the container
+	 */
+	public void setContainer(double x, double y) {
+		m_hasContainer = true;
+		m_containerX = x;
+		m_containerY = y;
+	}
+
+	/**
+	 * Starts a new trajectory, the body angle starts at 0.
+	 */
+	public void reset() {
+		m_prevAlphaAbs = 0;
+		m_prevAlphaRel = 0;
+	}
+
+	/**
+	 * Computes the features of the rows start ... end-1. The row before start
+	 * is the previous row of the first row, the first row of a trajectory is
+	 * compared to itself. The results are available by
+	 * {@link #feature(int)}.
+	 *
+	 * @param trajectory
+	 *            trajectory with the columns {@link LarvaTrajectory#HEAD_X}
+	 *            ... {@link LarvaTrajectory#TIME}
+	 * @param start
+	 *            first row
+	 * @param end
+	 *            row after the last row
+	 */
+	public void compute(LarvaTrajectory trajectory, int start, int end) {
+		int n = end - start;
+		if (m_features[0].length < n) {
+			for (int f = 0; f < NUM_FEATURES; f++) {
+				m_features[f] = new double[n];
+			}
+		}
+		double[] headX = trajectory.column(LarvaTrajectory.HEAD_X);
+		double[] headY = trajectory.column(LarvaTrajectory.HEAD_Y);
+		double[] tailX = trajectory.column(LarvaTrajectory.TAIL_X);
+		double[] tailY = trajectory.column(LarvaTrajectory.TAIL_Y);
+		double[] centerX = trajectory.column(LarvaTrajectory.CENTER_X);
+		double[] centerY = trajectory.column(LarvaTrajectory.CENTER_Y);
+		double[] centroidX = trajectory.column(LarvaTrajectory.CENTROID_X);
+		double[] centroidY = trajectory.column(LarvaTrajectory.CENTROID_Y);
+		double[] time = trajectory.column(LarvaTrajectory.TIME);
+
+		double[] alphaAbs = m_features[ALPHA_ABS];
+		double[] alpha = m_features[ALPHA];
+		double[] theta = m_features[THETA];
+		double[] reorientSpeed = m_features[REORIENT_SPEED];
+		double[] vCentroid = m_features[V_CENTROID];
+		double[] vHead = m_features[V_HEAD];
+		double[] vCenter = m_features[V_CENTER];
+		double[] distToContainer = m_features[DIST_TO_CONTAINER];
+		double[] length = m_features[LENGTH];
+
+		// absolute angles of the body axis and of the head axis
+		for (int i = 0, r = start; i < n; i++, r++) {
+			alphaAbs[i] = angleAbs(tailX[r], tailY[r], centerX[r], centerY[r]);
+			theta[i] = angleAbs(centerX[r], centerY[r], headX[r], headY[r]);
+		}
+
+		// head angle relative to the body axis
+		for (int i = 0; i < n; i++) {
+			theta[i] = angleDiff(alphaAbs[i], theta[i]);
+		}
+
+		// accumulated body angle, rows without a valid absolute angle keep
+		// the previous one
+		double prevAlphaAbs = m_prevAlphaAbs;
+		double prevAlphaRel = m_prevAlphaRel;
+		for (int i = 0; i < n; i++) {
+			alpha[i] = prevAlphaRel + angleDiff(prevAlphaAbs, alphaAbs[i]);
+			prevAlphaRel = alpha[i];
+			if (alphaAbs[i] != Double.POSITIVE_INFINITY) {
+				prevAlphaAbs = alphaAbs[i];
+			}
+		}
+
+		// speeds
+		for (int i = 0, r = start; i < n; i++, r++) {
+			int p = r > 0 ? r - 1 : 0;
+			double dTime = time[r] - time[p];
+			double prevAlpha = i > 0 ? alpha[i - 1] : m_prevAlphaRel;
+			if (dTime != 0) {
+				reorientSpeed[i] = Math.abs(alpha[i] - prevAlpha) / dTime;
+				vCentroid[i] = distance(centroidX[r], centroidY[r],
+						centroidX[p], centroidY[p]) / dTime;
+				vHead[i] = distance(headX[r], headY[r], headX[p], headY[p])
+						/ dTime;
+				// not divided by the time
+				vCenter[i] = distance(centerX[r], centerY[r], centerX[p],
+						centerY[p]);
+			} else {
+				reorientSpeed[i] = 0;
+				vCentroid[i] = 0;
+				vHead[i] = 0;
+				vCenter[i] = 0;
+			}
+		}
+
+		// posture and position
+		for (int i = 0, r = start; i < n; i++, r++) {
+			length[i] = distance(tailX[r], tailY[r], centerX[r], centerY[r])
+					+ distance(centerX[r], centerY[r], headX[r], headY[r]) + 2;
+		}
+		if (m_hasContainer) {
+			for (int i = 0, r = start; i < n; i++, r++) {
+				distToContainer[i] = distance(centerX[r], centerY[r],
+						m_containerX, m_containerY);
+			}
+		} else {
+			Arrays.fill(distToContainer, 0, n, -1);
+		}
+
+		m_prevAlphaAbs = prevAlphaAbs;
+		m_prevAlphaRel = prevAlphaRel;
+	}
+
+	/**
+	 * @param feature
+	 *            the feature, {@link #ALPHA_ABS} ... {@link #LENGTH}
+	 * @return the values of the last computed rows, the first value belongs
+	 *         to the first computed row
+	 */
+	public double[] feature(int feature) {
+		return m_features[feature];
+	}
+
+	/**
+	 * @return the last valid absolute angle of the body axis
+	 */
+	public double getPrevAlphaAbs() {
+		return m_prevAlphaAbs;
+	}
+
+	/**
+	 * @return the body angle of the last computed row
+	 */
+	public double getPrevAlphaRel() {
+		return m_prevAlphaRel;
+	}
+
+	/**
+	 * Continues a trajectory which was computed before.
+	 *
+	 * @param prevAlphaAbs
+	 *            see {@link #getPrevAlphaAbs()}
+	 * @param prevAlphaRel
+	 *            see {@link #getPrevAlphaRel()}
+	 */
+	public void setState(double prevAlphaAbs, double prevAlphaRel) {
+		m_prevAlphaAbs = prevAlphaAbs;
+		m_prevAlphaRel = prevAlphaRel;
+	}
+
+	/**
+	 * Absolute angle from a fixed point to a movable point in comparison to
+	 * the x-axis.
+	 *
+	 * @return the angle between -180 and 180,
+	 *         {@link Double#POSITIVE_INFINITY} if the points are equal
+	 */
+	private static double angleAbs(double fixedX, double fixedY,
+			double movableX, double movableY) {
+		double num = fixedY - movableY;
+		double denom = movableX - fixedX;
+		if (denom == 0) {
+			if (num < 0) {
+				return -90;
+			} else if (num > 0) {
+				return 90;
+			}
+			return Double.POSITIVE_INFINITY;
+		}
+		// not atan2, which rounds differently and turns a head angle of 180
+		// of opposite axes into -180 or the other way round
+		double angle = Math.toDegrees(Math.atan(num / denom));
+		if (denom < 0) {
+			return num < 0 ? angle - 180 : angle + 180;
+		}
+		return angle;
+	}
+
+	/**
+	 * Difference between two absolute angles.
+	 *
+	 * @return difference between -180 and 180 starting at the fixed angle, 0
+	 *         if one of the angles is not valid
+	 */
+	private static double angleDiff(double fixedAngle, double movableAngle) {
+		if (fixedAngle == Double.POSITIVE_INFINITY
+				|| movableAngle == Double.POSITIVE_INFINITY) {
+			return 0;
+		}
+		double diff = toPositive(movableAngle) - toPositive(fixedAngle);
+		if (diff > 180) {
+			return diff - 360;
+		} else if (diff < -180) {
+			return diff + 360;
+		}
+		return diff;
+	}
+
+	/**
+	 * Same as (angle + 360) % 360 for angles between -180 and 180, without
+	 * the floating point modulo.
+	 */
+	private static double toPositive(double angle) {
+		double positive = angle + 360;
+		return positive >= 360 ? positive - 360 : positive;
+	}
+
+	private static double distance(double x1, double y1, double x2, double y2) {
+		double dx = x1 - x2;
+		double dy = y1 - y2;
+		return Math.sqrt(dx * dx + dy * dy);
+	}
+}
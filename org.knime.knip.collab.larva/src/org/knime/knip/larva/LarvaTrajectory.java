@@ -0,0 +1,243 @@
+package org.knime.knip.larva;
+
+import java.util.Arrays;
+
+import org.knime.core.data.DataRow;
+import org.knime.core.data.DataTable;
+import org.knime.core.data.DoubleValue;
+import org.knime.core.data.RowIterator;
+
+/**
+ * Values of a larva over time, stored column by column in primitive arrays.
+ * The trajectory is read once from a table, afterwards all computations work
+ * on the arrays without accessing cells or creating point objects.
+ *
+ * Each column of the trajectory holds the values of one column of the table.
+ * The nodes of this plug-in read the positions of the larva in the order of
+ * the constants {@link #HEAD_X} ... {@link #TIME}, other nodes (e.g. the
+ * viewer) can read any double columns.
+ *
+ * @author wildnerm, University of Konstanz
+ */
+public final class LarvaTrajectory {
+
+	/** column of the x- position of the head (or first end) */
+	public static final int HEAD_X = 0;
+	/** column of the y- position of the head (or first end) */
+	public static final int HEAD_Y = 1;
+	/** column of the x- position of the tail (or second end) */
+	public static final int TAIL_X = 2;
+	/** column of the y- position of the tail (or second end) */
+	public static final int TAIL_Y = 3;
+	/** column of the x- position of the center */
+	public static final int CENTER_X = 4;
+	/** column of the y- position of the center */
+	public static final int CENTER_Y = 5;
+	/** column of the x- position of the centroid */
+	public static final int CENTROID_X = 6;
+	/** column of the y- position of the centroid */
+	public static final int CENTROID_Y = 7;
+	/** column of the time */
+	public static final int TIME = 8;
+	/** number of columns of a trajectory of larva positions */
+	public static final int NUM_COLUMNS = 9;
+
+	/* the values, column by column */
+	private final double[][] m_columns;
+
+	/* number of rows */
+	private int m_size;
+
+	/**
+	 * Creates an empty trajectory of larva positions.
+	 */
+	public LarvaTrajectory() {
+		this(NUM_COLUMNS, 64);
+	}
+
+	/**
+	 * Creates an empty trajectory.
+	 *
+	 * @param numColumns
+	 *            number of columns
+	 * @param capacity
+	 *            expected number of rows, the columns grow as needed
+	 */
+	public LarvaTrajectory(int numColumns, int capacity) {
+		m_columns = new double[numColumns][Math.max(capacity, 1)];
+		m_size = 0;
+	}
+
+	/**
+	 * Reads a table into a new trajectory.
+	 *
+	 * @param table
+	 *            the table
+	 * @param numRows
+	 *            number of rows of the table
+	 * @param colPos
+	 *            position of the table column of each trajectory column, all
+	 *            columns have to be compatible to {@link DoubleValue}
+	 * @return the trajectory
+	 */
+	public static LarvaTrajectory load(DataTable table, int numRows,
+			int[] colPos) {
+		LarvaTrajectory trajectory = new LarvaTrajectory(colPos.length,
+				numRows);
+		RowIterator iter = table.iterator();
+		while (iter.hasNext()) {
+			trajectory.add(iter.next(), colPos);
+		}
+		return trajectory;
+	}
+
+	/**
+	 * Appends the values of a row.
+	 *
+	 * @param row
+	 *            the row
+	 * @param colPos
+	 *            position of the cell of each trajectory column
+	 */
+	public void add(DataRow row, int[] colPos) {
+		ensureCapacity(m_size + 1);
+		for (int c = 0; c < m_columns.length; c++) {
+			m_columns[c][m_size] = ((DoubleValue) row.getCell(colPos[c]))
+					.getDoubleValue();
+		}
+		m_size++;
+	}
+
+	/**
+	 * Appends a row of values.
+	 *
+	 * @param values
+	 *            one value per column
+	 */
+	public void add(double[] values) {
+		ensureCapacity(m_size + 1);
+		for (int c = 0; c < m_columns.length; c++) {
+			m_columns[c][m_size] = values[c];
+		}
+		m_size++;
+	}
+
+	/**
+	 * Removes all rows, the arrays are kept.
+	 */
+	public void clear() {
+		m_size = 0;
+	}
+
+	/**
+	 * @return number of rows
+	 */
+	public int size() {
+		return m_size;
+	}
+
+	/**
+	 * @return number of columns
+	 */
+	public int numColumns() {
+		return m_columns.length;
+	}
+
+	/**
+	 * Gives direct access to the values of a column. The array may be longer
+	 * than the trajectory and is replaced if rows are added.
+	 *
+	 * @param column
+	 *            the column
+	 * @return the values of the column, valid up to {@link #size()}
+	 */
+	public double[] column(int column) {
+		return m_columns[column];
+	}
+
+	/**
+	 * @param column
+	 *            the column
+	 * @param row
+	 *            the row
+	 * @return the value
+	 */
+	public double get(int column, int row) {
+		return m_columns[column][row];
+	}
+
+	/**
+	 * @param column
+	 *            the column
+	 * @param row
+	 *            the row
+	 * @param value
+	 *            the new value
+	 */
+	public void set(int column, int row, double value) {
+		m_columns[column][row] = value;
+	}
+
+	/**
+	 * Replaces the values of a row, e.g. if the trajectory is used as a ring
+	 * buffer of the last rows.
+	 *
+	 * @param row
+	 *            the row
+	 * @param values
+	 *            one value per column
+	 */
+	public void set(int row, double[] values) {
+		for (int c = 0; c < m_columns.length; c++) {
+			m_columns[c][row] = values[c];
+		}
+	}
+
+	/**
+	 * Exchanges the head and the tail of a row.
+	 *
+	 * @param row
+	 *            the row
+	 */
+	public void swapEnds(int row) {
+		swap(HEAD_X, TAIL_X, row);
+		swap(HEAD_Y, TAIL_Y, row);
+	}
+
+	/**
+	 * Distance between two points of the trajectory, each point is stored in
+	 * a column of x- values followed by a column of y- values.
+	 *
+	 * @param xColumn
+	 *            x- column of the first point
+	 * @param row
+	 *            row of the first point
+	 * @param otherXColumn
+	 *            x- column of the second point
+	 * @param otherRow
+	 *            row of the second point
+	 * @return the euclidean distance
+	 */
+	public double distance(int xColumn, int row, int otherXColumn,
+			int otherRow) {
+		double dx = m_columns[xColumn][row] - m_columns[otherXColumn][otherRow];
+		double dy = m_columns[xColumn + 1][row]
+				- m_columns[otherXColumn + 1][otherRow];
+		return Math.sqrt(dx * dx + dy * dy);
+	}
+
+	private void swap(int column, int otherColumn, int row) {
+		double tmp = m_columns[column][row];
+		m_columns[column][row] = m_columns[otherColumn][row];
+		m_columns[otherColumn][row] = tmp;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (m_columns.length > 0 && m_columns[0].length < capacity) {
+			int newCapacity = Math.max(capacity, 2 * m_columns[0].length);
+			for (int c = 0; c < m_columns.length; c++) {
+				m_columns[c] = Arrays.copyOf(m_columns[c], newCapacity);
+			}
+		}
+	}
+}
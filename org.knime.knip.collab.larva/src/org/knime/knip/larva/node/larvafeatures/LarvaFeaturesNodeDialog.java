@@ -1,5 +1,6 @@
 package org.knime.knip.larva.node.larvafeatures;
 
+import org.knime.core.data.DataValue;
 import org.knime.core.data.DoubleValue;
 import org.knime.core.node.defaultnodesettings.DialogComponentBoolean;
 import org.knime.core.node.defaultnodesettings.DialogComponentColumnNameSelection;
@@ -81,6 +82,13 @@ public class LarvaFeaturesNodeDialog<L extends Comparable<L>> extends
 						LarvaFeaturesNodeModel
 								.createSortAccordingToTimeSelectionModel(),
 						"sort table according to time (use if you cannot ensure incoming ascending time values)"));
+		addDialogComponent(
+				"Options",
+				"Column of larva track ID",
+				new DialogComponentColumnNameSelection(LarvaFeaturesNodeModel
+						.createTrackIdColumnModel(),
+						"track ID (features are computed per larva): ", 0,
+						false, true, DataValue.class));
 		addDialogComponent(
 				"Options",
 				"Container position",
@@ -88,5 +96,11 @@ public class LarvaFeaturesNodeDialog<L extends Comparable<L>> extends
 						LarvaFeaturesNodeModel
 								.createComputeDistanceToLeftSelectionModel(),
 						"Compute distance to left container/to right container otherwise (Needs second port)"));
+		addDialogComponent(
+				"Options",
+				"Incremental processing",
+				new DialogComponentBoolean(LarvaFeaturesNodeModel
+						.createIncrementalSelectionModel(),
+						"continue the last execution: process only rows after the last row of each track"));
 	}
 }
@@ -1,18 +1,34 @@
 package org.knime.knip.larva.node.larvafeatures;
 
 import java.awt.geom.Point2D;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.knime.core.data.DataCell;
 import org.knime.core.data.DataColumnSpec;
 import org.knime.core.data.DataColumnSpecCreator;
 import org.knime.core.data.DataRow;
+import org.knime.core.data.DataTable;
 import org.knime.core.data.DataTableSpec;
 import org.knime.core.data.DoubleValue;
 import org.knime.core.data.RowIterator;
+import org.knime.core.data.container.ContainerTable;
+import org.knime.core.data.container.DataContainer;
 import org.knime.core.data.def.DefaultRow;
 import org.knime.core.data.def.DoubleCell;
 import org.knime.core.data.sort.BufferedDataTableSorter;
@@ -22,12 +38,15 @@ import org.knime.core.node.CanceledExecutionException;
 import org.knime.core.node.ExecutionContext;
 import org.knime.core.node.ExecutionMonitor;
 import org.knime.core.node.InvalidSettingsException;
+import org.knime.core.node.KNIMEConstants;
 import org.knime.core.node.NodeModel;
 import org.knime.core.node.NodeSettingsRO;
 import org.knime.core.node.NodeSettingsWO;
 import org.knime.core.node.defaultnodesettings.SettingsModelBoolean;
 import org.knime.core.node.defaultnodesettings.SettingsModelString;
 import org.knime.core.node.port.PortType;
+import org.knime.knip.larva.LarvaKinematics;
+import org.knime.knip.larva.LarvaTrajectory;
 
 /**
  * Node Model for node LarvaFeatures. It contains methods for computing features
@@ -52,6 +71,33 @@ public class LarvaFeaturesNodeModel extends NodeModel {
 	private SettingsModelString m_larvaTimeColumnSelection = createLarvaTimeColumnModel();
 	private SettingsModelBoolean m_sortAccordingToTimeSelection = createSortAccordingToTimeSelectionModel();
 	private SettingsModelBoolean m_computeDistanceToLeftSelection = createComputeDistanceToLeftSelectionModel();
+	private SettingsModelString m_trackIdColumnSelection = createTrackIdColumnModel();
+	private SettingsModelBoolean m_incrementalSelection = createIncrementalSelectionModel();
+
+	/* file of the internals, which hold the states of the tracks */
+	private static final String INTERNALS_FILE = "track_states.bin";
+
+	/* file of the internals, which holds the outgoing table */
+	private static final String OUTPUT_FILE = "track_output.zip";
+
+	/*
+	 * states of the tracks for the incremental processing, the key is the
+	 * track ID (empty if the table holds one larva)
+	 */
+	private final Map<String, TrackState> m_trackStates = new LinkedHashMap<String, TrackState>();
+
+	/*
+	 * outgoing table of the incremental processing, the next execution
+	 * appends its rows to it. It is not held by KNIME, so it survives the
+	 * reset of the node.
+	 */
+	private ContainerTable m_prevOutput = null;
+
+	/*
+	 * settings and incoming columns of the execution which created the states
+	 * of the tracks
+	 */
+	private String m_stateKey = null;
 
 	protected LarvaFeaturesNodeModel() {
 		super(new PortType[] { new PortType(BufferedDataTable.class),
@@ -70,6 +116,7 @@ public class LarvaFeaturesNodeModel extends NodeModel {
 			throws InvalidSettingsException {
 
 		DataTableSpec inSpecOne = inSpecs[0];
+		findTrackIdColumn(inSpecOne);
 		
 		return new DataTableSpec[] { createOutSpec(inSpecOne) };
 	}
@@ -84,13 +131,23 @@ public class LarvaFeaturesNodeModel extends NodeModel {
 		if (inData[0] == null) {
 			return inData;
 		}
+		// stores meta data about the table
+		DataTableSpec inDataSpec = inData[0].getDataTableSpec();
+
+		boolean incremental = m_incrementalSelection.getBooleanValue();
+		String stateKey = createStateKey(inDataSpec);
+		if (!incremental) {
+			clearState();
+		} else if (!m_trackStates.isEmpty() && !stateKey.equals(m_stateKey)) {
+			// the states belong to other columns
+			clearState();
+			setWarningMessage("The incoming columns changed,"
+					+ " all rows are processed again.");
+		}
 		int numRows = inData[0].getRowCount();
-		if (numRows < 2) {
+		if (numRows < 2 && m_trackStates.isEmpty()) {
 			return inData;
 		}
-		
-		// stores meta data about the table
-		DataTableSpec inDataSpec = inData[0].getDataTableSpec();
 		/*
 		 * stores the positions of needed columns. order of column positions:
 		 * EndOneX, EndOneY, EndTwoX, EndTwoY, CenterX, CenterY, Time
@@ -129,7 +186,10 @@ public class LarvaFeaturesNodeModel extends NodeModel {
 			}
 		}
 
-		RowIterator featureVectorIterator;
+		// position of the track ID, -1 if the table holds one larva
+		int trackIdPos = findTrackIdColumn(inDataSpec);
+
+		BufferedDataTable featureTable;
 		// sort table by time if selected in the dialog
 		if (m_sortAccordingToTimeSelection.getBooleanValue()) {
 			List<String> sortColumns = new ArrayList<String>();
@@ -138,10 +198,9 @@ public class LarvaFeaturesNodeModel extends NodeModel {
 			BufferedDataTableSorter tableSorter = new BufferedDataTableSorter(
 					inData[0], sortColumns, new boolean[] { true }, true);
 			tableSorter.setSortInMemory(m_sortInMemory);
-			BufferedDataTable sortedTable = tableSorter.sort(exec);
-			featureVectorIterator = sortedTable.iterator();
+			featureTable = tableSorter.sort(exec);
 		} else {
-			featureVectorIterator = inData[0].iterator();
+			featureTable = inData[0];
 		}
 
 		boolean isSecondTableEmpty = true;
@@ -170,191 +229,332 @@ public class LarvaFeaturesNodeModel extends NodeModel {
 		// number of outgoing columns
 		int numColOut = numColIn + m_newColNames.length;
 		// System.out.println("numColumns: " + numColumns);
-		int ctr = 0;
 
 		DataTableSpec outSpec = createOutSpec(inDataSpec);
 		BufferedDataContainer container = exec.createDataContainer(outSpec,
 				true);
 
-		Point2D prevHead = new Point2D.Double();
-		Point2D prevTail = new Point2D.Double();
-		Point2D prevCenter = new Point2D.Double();
-		Point2D prevCentroid = new Point2D.Double();
-		double prevAlphaAbs = 0;
-		double prevAlphaRel = 0;
-		double prevTime = 0;
-
-		DataRow currRow = null;
-
-		while (featureVectorIterator.hasNext()) {
-			currRow = featureVectorIterator.next();
+		// the positions of each larva are read once, all features are
+		// computed on the arrays
+		int[] trackOfRow = new int[numRows];
+		int[] rowInTrack = new int[numRows];
+		List<String> trackKeys = new ArrayList<String>();
+		List<TrackState> prevStates = new ArrayList<TrackState>();
+		List<TrackState> states = new ArrayList<TrackState>();
+		List<LarvaTrajectory> trajectories = readTrajectories(featureTable,
+				numRows, colPos, trackIdPos, m_trackStates, trackOfRow,
+				rowInTrack, trackKeys, prevStates, states);
+		if (trajectories == null) {
+			// the states do not belong to the first rows of the table
+			clearState();
+			setWarningMessage("The incoming rows do not continue the"
+					+ " processed rows, all rows are processed again.");
+			trackKeys.clear();
+			prevStates.clear();
+			states.clear();
+			trajectories = readTrajectories(featureTable, numRows, colPos,
+					trackIdPos, m_trackStates, trackOfRow, rowInTrack,
+					trackKeys, prevStates, states);
+		}
+		exec.checkCanceled();
+		LarvaKinematics[] kinematics = computeKinematics(trajectories,
+				prevStates, isSecondTableEmpty ? null : containerPos, exec);
+
+		// the rows of the previous execution are taken from its output
+		if (m_prevOutput != null) {
+			RowIterator prevOutRows = m_prevOutput.iterator();
+			while (prevOutRows.hasNext()) {
+				container.addRowToTable(prevOutRows.next());
+			}
+		}
+		RowIterator featureVectorIterator = featureTable.iterator();
+		for (int ctr = 0; ctr < numRows; ctr++) {
+			DataRow currRow = featureVectorIterator.next();
+			if (trackOfRow[ctr] < 0) {
+				// processed by the previous execution
+				continue;
+			}
 
-			DataRow outRow = null;
 			DataCell[] cells = new DataCell[numColOut];
 			for (int i = 0; i < numColIn; i++) {
 				cells[i] = currRow.getCell(i); // default: transfer other
 												// columns
 			}
-			Point2D currHead = new Point2D.Double();
-			Point2D currTail = new Point2D.Double();
-			Point2D currCenter = new Point2D.Double();
-			Point2D currCentroid = new Point2D.Double();
-			currHead.setLocation(
-					((DoubleValue) currRow.getCell(colPos[0])).getDoubleValue(),
-					((DoubleValue) currRow.getCell(colPos[1])).getDoubleValue());
-			currTail.setLocation(
-					((DoubleValue) currRow.getCell(colPos[2])).getDoubleValue(),
-					((DoubleValue) currRow.getCell(colPos[3])).getDoubleValue());
-			currCenter
-					.setLocation(((DoubleValue) currRow.getCell(colPos[4]))
-							.getDoubleValue(), ((DoubleValue) currRow
-							.getCell(colPos[5])).getDoubleValue());
-			currCentroid
-					.setLocation(((DoubleValue) currRow.getCell(colPos[6]))
-							.getDoubleValue(), ((DoubleValue) currRow
-							.getCell(colPos[7])).getDoubleValue());
-			double currTime = ((DoubleValue) currRow.getCell(colPos[8]))
-					.getDoubleValue();
-			if (ctr == 0) {
-				prevTime = currTime;
+			// the features are in the order of the new columns
+			LarvaKinematics trackKinematics = kinematics[trackOfRow[ctr]];
+			for (int f = 0; f < LarvaKinematics.NUM_FEATURES; f++) {
+				cells[numColIn + f] = new DoubleCell(
+						trackKinematics.feature(f)[rowInTrack[ctr]]);
 			}
+			container.addRowToTable(new DefaultRow(currRow.getKey(), cells));
+			exec.checkCanceled();
+			exec.setProgress((double) ctr / numRows);
+		}
 
-			// calculation of absolute alpha
-			double currAlphaAbs = computeAngleAbs(currTail, currCenter);
-			cells[numColIn] = new DoubleCell(currAlphaAbs);
-
-			// calculation of alpha (body angle)
-			double alphaTemp = computeAngleDiff(prevAlphaAbs, currAlphaAbs);
-			double alphaRel = prevAlphaRel + alphaTemp;
-			cells[numColIn + 1] = new DoubleCell(alphaRel);
-
-			// calculation of theta (head angle)
-			// double angleBodyAxes = computeAngleAbs(currTail, currCenter);
-			double angleHeadAxes = computeAngleAbs(currCenter, currHead);
-			double theta = computeAngleDiff(currAlphaAbs, angleHeadAxes);
-			cells[numColIn + 2] = new DoubleCell(theta);
-
-			// calculation of reorientation speed
-			double dTime = currTime - prevTime;
-			double reoSpeed = 0;
-			if (dTime != 0) {
-				reoSpeed = Math.abs((alphaRel - prevAlphaRel)) / dTime;
-			}
-			cells[numColIn + 3] = new DoubleCell(reoSpeed);
+		container.close();
+		BufferedDataTable outTable = container.getTable();
 
-			// calculation of v_centroid (locomotion speed)
-			double vCentroid = 0;
-			if (dTime != 0) {
-				vCentroid = currCentroid.distance(prevCentroid) / dTime;
+		clearState();
+		if (incremental) {
+			for (int t = 0; t < trajectories.size(); t++) {
+				states.get(t).setLastRow(trajectories.get(t), kinematics[t]);
+				m_trackStates.put(trackKeys.get(t), states.get(t));
 			}
-			cells[numColIn + 4] = new DoubleCell(vCentroid);
+			m_stateKey = stateKey;
+			m_prevOutput = DataContainer.cache(outTable, exec);
+		}
 
-			// calculation of v_head (head speed)
-			double vHead = 0;
-			if (dTime != 0) {
-				vHead = currHead.distance(prevHead) / dTime;
-			}
-			cells[numColIn + 5] = new DoubleCell(vHead);
+		return new BufferedDataTable[] { outTable };
+	}
 
-			// calculation of v_center (speed of the center of the larva)
-			double vCenter = 0;
-			if (dTime != 0) {
-				vCenter = currCenter.distance(prevCenter);
-			}
-			cells[numColIn + 6] = new DoubleCell(vCenter);
-			
-			// calculation of the distance between larva and container
-			double distToContainer = -1;
-			if (!isSecondTableEmpty) {
-				distToContainer = currCenter.distance(containerPos);
+	/**
+	 * Reads the positions of the larvae, one trajectory per track ID in the
+	 * order of the first appearance of the IDs. The rows of a track keep
+	 * their order in the table.
+	 * 
+	 * If a track was processed by the previous execution, its trajectory
+	 * starts with the last row of this execution and the processed rows of
+	 * the track are skipped. They have to be the first rows of the track,
+	 * i.e. the row at the position of the last processed row has to be
+	 * unchanged.
+	 * 
+	 * @param table
+	 *            the table
+	 * @param numRows
+	 *            number of rows of the table
+	 * @param colPos
+	 *            positions of the columns of the trajectories
+	 * @param trackIdPos
+	 *            position of the track ID, -1 if the table holds one larva
+	 * @param trackStates
+	 *            states of the tracks after the previous execution
+	 * @param trackOfRow
+	 *            is filled with the track of each row of the table, -1 if the
+	 *            row is skipped
+	 * @param rowInTrack
+	 *            is filled with the row of the trajectory of each row of the
+	 *            table, not counting the row of the previous execution
+	 * @param trackKeys
+	 *            is filled with the key of the state of each track
+	 * @param prevStates
+	 *            is filled with the state of each track after the previous
+	 *            execution, null if the track is new
+	 * @param states
+	 *            is filled with the new state of each track, holding the
+	 *            number of rows and the key of the last row
+	 * @return the trajectories, null if a processed track is not continued by
+	 *         the table
+	 */
+	private static List<LarvaTrajectory> readTrajectories(DataTable table,
+			int numRows, int[] colPos, int trackIdPos,
+			Map<String, TrackState> trackStates, int[] trackOfRow,
+			int[] rowInTrack, List<String> trackKeys,
+			List<TrackState> prevStates, List<TrackState> states) {
+		List<LarvaTrajectory> trajectories = new ArrayList<LarvaTrajectory>();
+		Map<DataCell, Integer> tracks = new HashMap<DataCell, Integer>();
+		RowIterator iter = table.iterator();
+		for (int ctr = 0; iter.hasNext(); ctr++) {
+			DataRow row = iter.next();
+			DataCell trackId = trackIdPos < 0 ? null : row.getCell(trackIdPos);
+			Integer track = tracks.get(trackId);
+			if (track == null) {
+				track = trajectories.size();
+				tracks.put(trackId, track);
+				LarvaTrajectory trajectory = trackIdPos < 0 ? new LarvaTrajectory(
+						LarvaTrajectory.NUM_COLUMNS, numRows + 1)
+						: new LarvaTrajectory();
+				String key = trackId == null ? "" : trackId.toString();
+				TrackState prevState = trackStates.get(key);
+				if (prevState != null) {
+					trajectory.add(prevState.m_lastValues);
+				}
+				trajectories.add(trajectory);
+				trackKeys.add(key);
+				prevStates.add(prevState);
+				states.add(new TrackState());
 			}
-			cells[numColIn + 7] = new DoubleCell(distToContainer);
-			
-			// calculation of the length of the larva; try to minimize the error
-			double lengthLarva = currTail.distance(currCenter) + currCenter.distance(currHead) + 2;
-			cells[numColIn + 8] = new DoubleCell(lengthLarva);
-
-			outRow = new DefaultRow(currRow.getKey(), cells);
-			container.addRowToTable(outRow);
-
-			prevHead.setLocation(currHead);
-			prevTail.setLocation(currTail);
-			prevCenter.setLocation(currCenter);
-			prevCentroid.setLocation(currCentroid);
-			prevTime = currTime;
-			if (currAlphaAbs != java.lang.Double.POSITIVE_INFINITY) {
-				prevAlphaAbs = currAlphaAbs;
+			TrackState prevState = prevStates.get(track);
+			TrackState state = states.get(track);
+			state.m_numRows++;
+			state.m_lastRowKey = row.getKey().getString();
+			if (prevState != null && state.m_numRows <= prevState.m_numRows) {
+				if (state.m_numRows == prevState.m_numRows
+						&& !prevState.isLastRow(row, colPos)) {
+					return null;
+				}
+				trackOfRow[ctr] = -1;
+				continue;
 			}
-			prevAlphaRel = alphaRel;
-			exec.setProgress(ctr++ / numRows);
+			LarvaTrajectory trajectory = trajectories.get(track);
+			trackOfRow[ctr] = track;
+			rowInTrack[ctr] = prevState == null ? trajectory.size()
+					: trajectory.size() - 1;
+			trajectory.add(row, colPos);
 		}
 
-		container.close();
-
-		return new BufferedDataTable[] { container.getTable() };
+		// each processed track needs all its processed rows
+		int numContinued = 0;
+		for (int t = 0; t < prevStates.size(); t++) {
+			if (prevStates.get(t) != null) {
+				if (states.get(t).m_numRows < prevStates.get(t).m_numRows) {
+					return null;
+				}
+				numContinued++;
+			}
+		}
+		return numContinued == trackStates.size() ? trajectories : null;
 	}
 
 	/**
-	 * Calculates the absolute angle of the larva orientation in comparison to
-	 * the x-axis. The value is between -180 and 180.
+	 * Computes the features of each trajectory. The tracks are independent,
+	 * they are distributed over the calling thread and the threads of the
+	 * KNIME thread pool.
 	 * 
-	 * @param fixedPoint
-	 *            point of comparison
-	 * @param movablePoint
-	 *            point to which the angle should be calculated
-	 * @return absolute angle between the points and the x-axis
+	 * @param trajectories
+	 *            the trajectories
+	 * @param prevStates
+	 *            state of each track after the previous execution, null if
+	 *            the track is new. The first row of a continued trajectory
+	 *            belongs to the previous execution and is not computed.
+	 * @param containerPos
+	 *            position of the container, null if there is none
+	 * @param exec
+	 *            checked for cancellation between the tracks
+	 * @return the features of each trajectory
 	 */
-	private double computeAngleAbs(Point2D fixedPoint, Point2D movablePoint) {
-		double num = fixedPoint.getY() - movablePoint.getY();
-		double denom = movablePoint.getX() - fixedPoint.getX();
-		double angleAbs;
-		if (denom == 0) {
-			if (num < 0) {
-				angleAbs = -90;
-			} else if (num > 0) {
-				angleAbs = 90;
-			} else {
-				angleAbs = java.lang.Double.POSITIVE_INFINITY;
+	private static LarvaKinematics[] computeKinematics(
+			final List<LarvaTrajectory> trajectories,
+			final List<TrackState> prevStates, final Point2D containerPos,
+			final ExecutionMonitor exec) throws CanceledExecutionException,
+			InterruptedException {
+		final LarvaKinematics[] kinematics = new LarvaKinematics[trajectories
+				.size()];
+		final AtomicInteger nextTrack = new AtomicInteger();
+		// the helpers run the same loop as the calling thread
+		class Worker implements Callable<Void> {
+			@Override
+			public Void call() throws CanceledExecutionException {
+				int track;
+				while ((track = nextTrack.getAndIncrement()) < kinematics.length) {
+					exec.checkCanceled();
+					LarvaTrajectory trajectory = trajectories.get(track);
+					LarvaKinematics trackKinematics = new LarvaKinematics();
+					if (containerPos != null) {
+						trackKinematics.setContainer(containerPos.getX(),
+								containerPos.getY());
+					}
+					TrackState prevState = prevStates.get(track);
+					if (prevState == null) {
+						trackKinematics.compute(trajectory, 0,
+								trajectory.size());
+					} else {
+						trackKinematics.setState(prevState.m_alphaAbs,
+								prevState.m_alphaRel);
+						trackKinematics.compute(trajectory, 1,
+								trajectory.size());
+					}
+					kinematics[track] = trackKinematics;
+				}
+				return null;
 			}
-		} else {
-			if (denom < 0) {
-				if (num < 0) {
-					angleAbs = -180 + Math.toDegrees((Math.atan(num / denom)));
-				} else {
-					angleAbs = 180 + Math.toDegrees((Math.atan(num / denom)));
+		}
+		Worker worker = new Worker();
+
+		// the helpers are only queued, the calling thread is a thread of the
+		// pool itself and must not wait for a free thread
+		int numHelpers = Math.min(kinematics.length, Runtime.getRuntime()
+				.availableProcessors()) - 1;
+		List<Future<Void>> helpers = new ArrayList<Future<Void>>();
+		for (int i = 0; i < numHelpers; i++) {
+			helpers.add(KNIMEConstants.GLOBAL_THREAD_POOL.enqueue(worker));
+		}
+		try {
+			worker.call();
+		} finally {
+			// helpers which did not start until all tracks were taken (or
+			// the node was canceled) are not needed
+			for (Future<Void> helper : helpers) {
+				helper.cancel(false);
+			}
+		}
+		for (Future<Void> helper : helpers) {
+			if (helper.isCancelled()) {
+				continue;
+			}
+			try {
+				helper.get();
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof CanceledExecutionException) {
+					throw (CanceledExecutionException) cause;
+				} else if (cause instanceof RuntimeException) {
+					throw (RuntimeException) cause;
+				} else if (cause instanceof Error) {
+					throw (Error) cause;
 				}
-			} else {
-				angleAbs = Math.toDegrees((Math.atan(num / denom)));
+				throw new RuntimeException(cause);
 			}
 		}
-		return angleAbs;
+		return kinematics;
 	}
 
 	/**
-	 * Calculates the difference between two angles
-	 * 
-	 * @param fixedAngle
-	 *            angle of comparison
-	 * @param movableAngle
-	 *            second angle
-	 * @return difference between the two angles starting at the fixed angle
+	 * @param inSpec
+	 *            incoming data table spec
+	 * @return the settings (except the incremental processing) and the names
+	 *         of the incoming columns, the states of the tracks can only be
+	 *         continued with the same key
 	 */
-	private double computeAngleDiff(double fixedAngle, double movableAngle) {
-		if (fixedAngle == java.lang.Double.POSITIVE_INFINITY
-				|| movableAngle == java.lang.Double.POSITIVE_INFINITY) {
-			return 0;
-		} else {
-			double tempFixed = (fixedAngle + 360) % 360;
-			double tempMovable = (movableAngle + 360) % 360;
-			double diff = tempMovable - tempFixed;
-			if (diff > 180) {
-				return -360 + diff;
-			} else if (diff < -180) {
-				return 360 + diff;
-			} else {
-				return diff;
-			}
+	private String createStateKey(DataTableSpec inSpec) {
+		StringBuilder key = new StringBuilder(getSettingsKey());
+		for (int i = 0; i < inSpec.getNumColumns(); i++) {
+			key.append(inSpec.getColumnSpec(i).getName()).append('\n');
 		}
+		return key.toString();
+	}
+
+	/**
+	 * @return the values of the settings except the incremental processing
+	 */
+	private String getSettingsKey() {
+		StringBuilder key = new StringBuilder();
+		SettingsModelString[] columns = new SettingsModelString[] {
+				m_larvaHeadXColumnSelection, m_larvaHeadYColumnSelection,
+				m_larvaTailXColumnSelection, m_larvaTailYColumnSelection,
+				m_larvaCenterXColumnSelection, m_larvaCenterYColumnSelection,
+				m_larvaCentroidXColumnSelection,
+				m_larvaCentroidYColumnSelection, m_larvaTimeColumnSelection,
+				m_trackIdColumnSelection };
+		for (SettingsModelString column : columns) {
+			key.append(column.getStringValue()).append('\n');
+		}
+		key.append(m_sortAccordingToTimeSelection.getBooleanValue())
+				.append('\n');
+		key.append(m_computeDistanceToLeftSelection.getBooleanValue())
+				.append('\n');
+		return key.toString();
+	}
+
+	/**
+	 * @param inSpec
+	 *            incoming data table spec
+	 * @return position of the selected track ID column, -1 if none is
+	 *         selected
+	 * @throws InvalidSettingsException
+	 *             if the selected column is missing
+	 */
+	private int findTrackIdColumn(DataTableSpec inSpec)
+			throws InvalidSettingsException {
+		String trackIdColumn = m_trackIdColumnSelection.getStringValue();
+		if (trackIdColumn == null || trackIdColumn.length() == 0) {
+			return -1;
+		}
+		int trackIdPos = inSpec.findColumnIndex(trackIdColumn);
+		if (trackIdPos == -1) {
+			throw new InvalidSettingsException("Track ID column '"
+					+ trackIdColumn + "' is missing! Check selection!");
+		}
+		return trackIdPos;
 	}
 
 	/**
@@ -394,6 +594,8 @@ public class LarvaFeaturesNodeModel extends NodeModel {
 		m_larvaTimeColumnSelection.saveSettingsTo(settings);
 		m_sortAccordingToTimeSelection.saveSettingsTo(settings);
 		m_computeDistanceToLeftSelection.saveSettingsTo(settings);
+		m_trackIdColumnSelection.saveSettingsTo(settings);
+		m_incrementalSelection.saveSettingsTo(settings);
 		// m_mergeEqualTimeSelection.saveSettingsTo(settings);
 	}
 
@@ -411,12 +613,19 @@ public class LarvaFeaturesNodeModel extends NodeModel {
 		m_larvaTimeColumnSelection.validateSettings(settings);
 		m_sortAccordingToTimeSelection.validateSettings(settings);
 		m_computeDistanceToLeftSelection.validateSettings(settings);
+		if (settings.containsKey(CFG_TRACK_ID_COLUMN)) {
+			m_trackIdColumnSelection.validateSettings(settings);
+		}
+		if (settings.containsKey(CFG_INCREMENTAL)) {
+			m_incrementalSelection.validateSettings(settings);
+		}
 		// m_mergeEqualTimeSelection.validateSettings(settings);
 	}
 
 	@Override
 	protected void loadValidatedSettingsFrom(NodeSettingsRO settings)
 			throws InvalidSettingsException {
+		String prevSettingsKey = getSettingsKey();
 		m_larvaHeadXColumnSelection.loadSettingsFrom(settings);
 		m_larvaHeadYColumnSelection.loadSettingsFrom(settings);
 		m_larvaTailXColumnSelection.loadSettingsFrom(settings);
@@ -428,24 +637,108 @@ public class LarvaFeaturesNodeModel extends NodeModel {
 		m_larvaTimeColumnSelection.loadSettingsFrom(settings);
 		m_sortAccordingToTimeSelection.loadSettingsFrom(settings);
 		m_computeDistanceToLeftSelection.loadSettingsFrom(settings);
+		// settings of older versions do not have the following options
+		if (settings.containsKey(CFG_TRACK_ID_COLUMN)) {
+			m_trackIdColumnSelection.loadSettingsFrom(settings);
+		} else {
+			m_trackIdColumnSelection.setStringValue("");
+		}
+		if (settings.containsKey(CFG_INCREMENTAL)) {
+			m_incrementalSelection.loadSettingsFrom(settings);
+		} else {
+			m_incrementalSelection.setBooleanValue(false);
+		}
 		// m_mergeEqualTimeSelection.loadSettingsFrom(settings);
+
+		// the states of the tracks belong to the previous settings
+		if (!getSettingsKey().equals(prevSettingsKey)) {
+			clearState();
+		}
 	}
 
 	@Override
 	protected void reset() {
-		// Nothing to do here, yet
+		// the states of the tracks and their outgoing table are kept, so the
+		// next execution can continue them
+	}
+
+	@Override
+	protected void onDispose() {
+		clearState();
+	}
+
+	/**
+	 * Drops the states of the tracks and the kept outgoing table.
+	 */
+	private void clearState() {
+		m_trackStates.clear();
+		if (m_prevOutput != null) {
+			m_prevOutput.clear();
+			m_prevOutput = null;
+		}
 	}
 
 	@Override
 	protected void loadInternals(File nodeInternDir, ExecutionMonitor exec)
 			throws IOException, CanceledExecutionException {
-
+		clearState();
+		m_stateKey = null;
+		File file = new File(nodeInternDir, INTERNALS_FILE);
+		File outputFile = new File(nodeInternDir, OUTPUT_FILE);
+		if (!file.exists() || !outputFile.exists()) {
+			return;
+		}
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(file)));
+		try {
+			m_stateKey = in.readUTF();
+			int numTracks = in.readInt();
+			for (int t = 0; t < numTracks; t++) {
+				String key = in.readUTF();
+				TrackState state = new TrackState();
+				for (int c = 0; c < LarvaTrajectory.NUM_COLUMNS; c++) {
+					state.m_lastValues[c] = in.readDouble();
+				}
+				state.m_alphaAbs = in.readDouble();
+				state.m_alphaRel = in.readDouble();
+				state.m_numRows = in.readInt();
+				state.m_lastRowKey = in.readUTF();
+				m_trackStates.put(key, state);
+			}
+		} finally {
+			in.close();
+		}
+		m_prevOutput = DataContainer.readFromZip(outputFile);
 	}
 
 	@Override
 	protected void saveInternals(File nodeInternDir, ExecutionMonitor exec)
 			throws IOException, CanceledExecutionException {
-
+		if (m_trackStates.isEmpty()) {
+			return;
+		}
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(new File(nodeInternDir, INTERNALS_FILE))));
+		try {
+			out.writeUTF(m_stateKey);
+			out.writeInt(m_trackStates.size());
+			for (Map.Entry<String, TrackState> entry : m_trackStates
+					.entrySet()) {
+				TrackState state = entry.getValue();
+				out.writeUTF(entry.getKey());
+				for (double value : state.m_lastValues) {
+					out.writeDouble(value);
+				}
+				out.writeDouble(state.m_alphaAbs);
+				out.writeDouble(state.m_alphaRel);
+				out.writeInt(state.m_numRows);
+				out.writeUTF(state.m_lastRowKey);
+			}
+		} finally {
+			out.close();
+		}
+		DataContainer.writeToZip(m_prevOutput, new File(nodeInternDir,
+				OUTPUT_FILE), exec);
 	}
 
 	/**
@@ -506,4 +799,75 @@ public class LarvaFeaturesNodeModel extends NodeModel {
 				true);
 	}
 
+	private static final String CFG_TRACK_ID_COLUMN = "larva_track_id_column_selection";
+
+	protected static SettingsModelString createTrackIdColumnModel() {
+		return new SettingsModelString(CFG_TRACK_ID_COLUMN, "");
+	}
+
+	private static final String CFG_INCREMENTAL = "incremental_selection";
+
+	protected static SettingsModelBoolean createIncrementalSelectionModel() {
+		return new SettingsModelBoolean(CFG_INCREMENTAL, false);
+	}
+
+	/**
+	 * State of a track after an execution, which is continued by the next
+	 * execution.
+	 */
+	private static final class TrackState {
+
+		/* values of the last row, see LarvaTrajectory */
+		private final double[] m_lastValues = new double[LarvaTrajectory.NUM_COLUMNS];
+
+		/* last valid absolute angle and last body angle */
+		private double m_alphaAbs;
+
+		private double m_alphaRel;
+
+		/* number of rows of the track and key of the last row */
+		private int m_numRows;
+
+		private String m_lastRowKey;
+
+		/**
+		 * Takes the values of the last row and the angles after it.
+		 * 
+		 * @param trajectory
+		 *            trajectory of the track
+		 * @param kinematics
+		 *            the computed features of the track
+		 */
+		void setLastRow(LarvaTrajectory trajectory, LarvaKinematics kinematics) {
+			int last = trajectory.size() - 1;
+			for (int c = 0; c < LarvaTrajectory.NUM_COLUMNS; c++) {
+				m_lastValues[c] = trajectory.get(c, last);
+			}
+			m_alphaAbs = kinematics.getPrevAlphaAbs();
+			m_alphaRel = kinematics.getPrevAlphaRel();
+		}
+
+		/**
+		 * @param row
+		 *            a row of the track
+		 * @param colPos
+		 *            positions of the columns of the trajectory
+		 * @return true if the row has the key and the values of the last row
+		 */
+		boolean isLastRow(DataRow row, int[] colPos) {
+			if (!row.getKey().getString().equals(m_lastRowKey)) {
+				return false;
+			}
+			for (int c = 0; c < LarvaTrajectory.NUM_COLUMNS; c++) {
+				double value = ((DoubleValue) row.getCell(colPos[c]))
+						.getDoubleValue();
+				if (Double.doubleToLongBits(value) != Double
+						.doubleToLongBits(m_lastValues[c])) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
 }
\ No newline at end of file
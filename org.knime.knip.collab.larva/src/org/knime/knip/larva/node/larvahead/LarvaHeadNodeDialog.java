@@ -3,6 +3,7 @@ package org.knime.knip.larva.node.larvahead;
 import org.knime.core.data.DoubleValue;
 import org.knime.core.node.defaultnodesettings.DialogComponentBoolean;
 import org.knime.core.node.defaultnodesettings.DialogComponentColumnNameSelection;
+import org.knime.core.node.defaultnodesettings.DialogComponentStringSelection;
 import org.knime.knip.base.node.ValueToCellNodeDialog;
 
 /**
@@ -90,6 +91,36 @@ public class LarvaHeadNodeDialog<L extends Comparable<L>> extends
 				"Column of larva time information",
 				new DialogComponentBoolean(LarvaHeadNodeModel
 						.createMergeEqualTimeSelectionModel(),
-						"try to merge rows with equal t-value (implementation not finished yet)"));
+						"merge rows with equal t-value"));
+		addDialogComponent(
+				"Options",
+				"Column of larva time information",
+				new DialogComponentStringSelection(LarvaHeadNodeModel
+						.createMergeMethodModel(), "merge double values by: ",
+						TimeOrderedRowIterator.MERGE_METHODS));
+		addDialogComponent(
+				"Options",
+				"Column of larva time information",
+				new DialogComponentBoolean(LarvaHeadNodeModel
+						.createStreamOrderedInputSelectionModel(),
+						"table is ordered by time: process it in a single pass without sorting"));
+		addDialogComponent(
+				"Options",
+				"Head detection",
+				new DialogComponentStringSelection(LarvaHeadNodeModel
+						.createHeadDetectionModel(), "find the head: ",
+						LarvaHeadNodeModel.HEAD_DETECTION_METHODS));
+		addDialogComponent(
+				"Options",
+				"Head detection",
+				new DialogComponentStringSelection(LarvaHeadNodeModel
+						.createEndAssignmentModel(), "align the ends: ",
+						LarvaHeadNodeModel.END_ASSIGNMENT_METHODS));
+		addDialogComponent(
+				"Options",
+				"Incremental processing",
+				new DialogComponentBoolean(LarvaHeadNodeModel
+						.createIncrementalSelectionModel(),
+						"continue the last execution: process only rows after its last row"));
 	}
 }
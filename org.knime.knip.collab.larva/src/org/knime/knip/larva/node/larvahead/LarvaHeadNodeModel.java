@@ -1,10 +1,15 @@
 package org.knime.knip.larva.node.larvahead;
 
 import java.awt.geom.Point2D;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
 
 import org.knime.core.data.DataCell;
@@ -14,8 +19,9 @@ import org.knime.core.data.DataRow;
 import org.knime.core.data.DataTableSpec;
 import org.knime.core.data.DoubleValue;
 import org.knime.core.data.RowIterator;
+import org.knime.core.data.container.ContainerTable;
+import org.knime.core.data.container.DataContainer;
 import org.knime.core.data.def.DefaultRow;
-import org.knime.core.data.def.DoubleCell;
 import org.knime.core.data.sort.BufferedDataTableSorter;
 import org.knime.core.node.BufferedDataContainer;
 import org.knime.core.node.BufferedDataTable;
@@ -28,6 +34,7 @@ import org.knime.core.node.NodeSettingsRO;
 import org.knime.core.node.NodeSettingsWO;
 import org.knime.core.node.defaultnodesettings.SettingsModelBoolean;
 import org.knime.core.node.defaultnodesettings.SettingsModelString;
+import org.knime.knip.larva.LarvaTrajectory;
 
 /**
  * Node Model for node LarvaHead. It contains methods for sorting the table,
@@ -53,6 +60,72 @@ public class LarvaHeadNodeModel extends NodeModel{
 	private SettingsModelString m_larvaTimeColumnSelection = createLarvaTimeColumnModel();
 	private SettingsModelBoolean m_sortAccordingToTimeSelection = createSortAccordingToTimeSelectionModel();
 	private SettingsModelBoolean m_mergeEqualTimeSelection = createMergeEqualTimeSelectionModel();
+	private SettingsModelString m_mergeMethodSelection = createMergeMethodModel();
+	private SettingsModelBoolean m_streamOrderedInputSelection = createStreamOrderedInputSelectionModel();
+	private SettingsModelString m_headDetectionSelection = createHeadDetectionModel();
+	private SettingsModelString m_endAssignmentSelection = createEndAssignmentModel();
+	private SettingsModelBoolean m_incrementalSelection = createIncrementalSelectionModel();
+
+	/**
+	 * The head is found once in the first rows of the table.
+	 */
+	static final String HEAD_DETECTION_FIRST_ROWS = "once in the first rows";
+
+	/**
+	 * The head is found for each row in a window around the row.
+	 */
+	static final String HEAD_DETECTION_SLIDING_WINDOWS = "in sliding windows over the whole track";
+
+	static final String[] HEAD_DETECTION_METHODS = new String[] {
+			HEAD_DETECTION_FIRST_ROWS, HEAD_DETECTION_SLIDING_WINDOWS };
+
+	/**
+	 * The ends of each row are aligned to the ends of the previous row.
+	 */
+	static final String END_ASSIGNMENT_GREEDY = "row by row";
+
+	/**
+	 * The ends of all rows are assigned at once by the cheapest path.
+	 */
+	static final String END_ASSIGNMENT_OPTIMAL = "optimal over the whole track";
+
+	static final String[] END_ASSIGNMENT_METHODS = new String[] {
+			END_ASSIGNMENT_GREEDY, END_ASSIGNMENT_OPTIMAL };
+
+	/**
+	 * number of rows at the beginning of the table which are used for
+	 * analyzing the movement
+	 */
+	private static final int HEAD_WINDOW_SIZE = 51;
+
+	/**
+	 * score of a sliding window which is needed for changing the head
+	 */
+	private static final int HEAD_FLIP_EVIDENCE = 5;
+
+	/**
+	 * cost of moving backwards by one pixel in comparison to a displacement
+	 * of the ends by one pixel
+	 */
+	private static final double BACKWARD_MOTION_COST = 5;
+
+	/**
+	 * number of positions which are read for aligning the ends, i.e. the ends
+	 * and the center
+	 */
+	private static final int NUM_POSITIONS = LarvaTrajectory.CENTER_Y + 1;
+
+	/**
+	 * file of the internals, which hold the state of the incremental
+	 * processing
+	 */
+	private static final String INTERNALS_FILE = "head_state.bin";
+
+	/**
+	 * file of the internals, which holds the outgoing table of the
+	 * incremental processing
+	 */
+	private static final String OUTPUT_FILE = "head_output.zip";
 
 	protected LarvaHeadNodeModel() {
 		super(1, 1);
@@ -63,6 +136,27 @@ public class LarvaHeadNodeModel extends NodeModel{
 	 */
 	private DataTableSpec m_outSpec;
 
+	/*
+	 * state of the incremental processing: the aligned positions of the last
+	 * processed row (null if no row was processed), which end is the head,
+	 * the number of processed rows and the key and values of the last one
+	 */
+	private double[] m_lastPositions = null;
+	private boolean m_lastIsHeadEqualToEndOne;
+	private int m_numProcessedRows;
+	private String m_lastRowKey;
+	private double[] m_lastValues;
+
+	/*
+	 * outgoing table of the incremental processing, the next execution
+	 * appends its rows to it. It is not held by KNIME, so it survives the
+	 * reset of the node.
+	 */
+	private ContainerTable m_prevOutput = null;
+
+	/* settings and incoming columns of the execution which created the state */
+	private String m_stateKey = null;
+
 	@Override
 	protected DataTableSpec[] configure(DataTableSpec[] inSpecs)
 			throws InvalidSettingsException {
@@ -84,13 +178,25 @@ public class LarvaHeadNodeModel extends NodeModel{
 	protected BufferedDataTable[] execute(BufferedDataTable[] inData,
 			ExecutionContext exec) throws Exception {
 
+		// stores meta data about the table
+		DataTableSpec inDataSpec = inData[0].getDataTableSpec();
+
+		boolean incremental = m_incrementalSelection.getBooleanValue();
+		String stateKey = createStateKey(inDataSpec);
+		if (!incremental) {
+			clearState();
+		} else if (m_lastPositions != null && !stateKey.equals(m_stateKey)) {
+			// the state belongs to other columns
+			clearState();
+			setWarningMessage("The incoming columns changed,"
+					+ " all rows are processed again.");
+		}
+		m_stateKey = stateKey;
+
 		int numRows = inData[0].getRowCount();
-		if (numRows < 2) {
+		if (numRows < 2 && m_lastPositions == null) {
 			return inData;
 		}
-
-		// stores meta data about the table
-		DataTableSpec inDataSpec = inData[0].getDataTableSpec();
 		/*
 		 * stores the positions of needed columns. order of column positions:
 		 * EndOneX, EndOneY, EndTwoX, EndTwoY, CenterX, CenterY, Time
@@ -129,7 +235,36 @@ public class LarvaHeadNodeModel extends NodeModel{
 			}
 		}
 
-		RowIterator featureVectorIterator;
+		boolean slidingWindows = HEAD_DETECTION_SLIDING_WINDOWS
+				.equals(m_headDetectionSelection.getStringValue());
+		boolean optimalAssignment = END_ASSIGNMENT_OPTIMAL
+				.equals(m_endAssignmentSelection.getStringValue());
+		if (incremental && (slidingWindows || optimalAssignment)) {
+			throw new InvalidSettingsException(
+					"Incremental processing needs the head detection in the first rows and the row by row alignment!");
+		}
+
+		// ordered tables are processed in a single pass
+		if (m_streamOrderedInputSelection.getBooleanValue()) {
+			if (m_lastPositions != null) {
+				BufferedDataTable outTable = executeIncremental(inData[0],
+						inDataSpec, colPos, true, exec);
+				if (outTable != null) {
+					return keepOutput(outTable, exec);
+				}
+			}
+			if (optimalAssignment) {
+				return new BufferedDataTable[] { executeOptimalAssignment(
+						inData[0], numRows, inDataSpec, colPos, true, exec) };
+			}
+			if (slidingWindows) {
+				return new BufferedDataTable[] { executeSlidingWindows(
+						inData[0], numRows, inDataSpec, colPos, true, exec) };
+			}
+			return keepOutput(executeStreaming(inData[0], colPos, exec), exec);
+		}
+
+		BufferedDataTable featureTable;
 		// sort table by time if selected in the dialog
 		if (m_sortAccordingToTimeSelection.getBooleanValue()) {
 			List<String> sortColumns = new ArrayList<String>();
@@ -138,137 +273,766 @@ public class LarvaHeadNodeModel extends NodeModel{
 			BufferedDataTableSorter tableSorter = new BufferedDataTableSorter(
 					inData[0], sortColumns, new boolean[] { true }, true);
 			tableSorter.setSortInMemory(m_sortInMemory);
-			BufferedDataTable sortedTable = tableSorter.sort(exec);
-			featureVectorIterator = sortedTable.iterator();
+			featureTable = tableSorter.sort(exec);
 		} else {
-			featureVectorIterator = inData[0].iterator();
+			featureTable = inData[0];
+		}
+
+		if (m_lastPositions != null) {
+			BufferedDataTable outTable = executeIncremental(featureTable,
+					inDataSpec, colPos, false, exec);
+			if (outTable != null) {
+				return keepOutput(outTable, exec);
+			}
+		}
+
+		if (optimalAssignment) {
+			return new BufferedDataTable[] { executeOptimalAssignment(
+					featureTable, numRows, inDataSpec, colPos, false, exec) };
+		}
+
+		if (slidingWindows) {
+			return new BufferedDataTable[] { executeSlidingWindows(
+					featureTable, numRows, inDataSpec, colPos, false, exec) };
 		}
 
-		// number of columns
-		int numColumns = inDataSpec.getNumColumns();
 		int ctr = 0;
 
 		BufferedDataContainer container = exec.createDataContainer(inDataSpec,
 				true);
 
+		// rows with equal time are merged while reading
+		TimeOrderedRowIterator featureVectorIterator = createRowIterator(
+				featureTable, colPos, false);
 		DataRow prevRow = null;
-		DataRow currRow = featureVectorIterator.next();
-		DataRow nextRow = null;
-
-		// 2-dimensional "table" for distinguishing head from tail by analyzing
-		// the movement
-		ArrayList<double[]> distTable = new ArrayList<double[]>();
+		DataRow lastInRow = null;
+
+		// aligned positions of the previous and the current row
+		double[] prevPositions = new double[NUM_POSITIONS];
+		double[] currPositions = new double[NUM_POSITIONS];
+		// positions for distinguishing head from tail by analyzing the
+		// movement
+		LarvaTrajectory window = new LarvaTrajectory(NUM_POSITIONS,
+				HEAD_WINDOW_SIZE);
 		// interval of the rows which should be used for analyzing the movement
 		int startRow = 0 - 1;
 		int endRow = Math.min(numRows, (50 + startRow + 2));
 
-		while (currRow != null) {
-			if (featureVectorIterator.hasNext()) {
-				nextRow = featureVectorIterator.next();
-				// try to merge rows if selected in the dialog
-				if (m_mergeEqualTimeSelection.getBooleanValue()) {
-					if (((DoubleValue) currRow.getCell(colPos[8]))
-							.getDoubleValue() == ((DoubleValue) nextRow
-							.getCell(colPos[8])).getDoubleValue()) {
-						DataRow mergedRow = mergeRows(currRow, nextRow, colPos);
-						currRow = mergedRow;
-						numRows--;
-						continue;
-					}
-				}
-			} else {
-				nextRow = null;
-			}
-
+		DataRow currRow;
+		while ((currRow = featureVectorIterator.next()) != null) {
 			/*
 			 * The two ends of the larva are stored in two columns. Here the
 			 * Ends are aligned to the previous row.
 			 */
-			boolean swapEnds = false;
-			if (prevRow != null) {
-				swapEnds = isSwapNeeded(prevRow, currRow, colPos);
+			readPositions(currRow, colPos, currPositions);
+			DataRow outRow = currRow;
+			if (prevRow != null && isSwapNeeded(prevPositions, currPositions)) {
+				outRow = swapEnds(currRow, colPos);
+				swapEnds(currPositions);
 			}
-			DataRow outRow;
-			if (swapEnds) {
-				DataCell[] cells = new DataCell[numColumns];
-				// if row is inside the interval, store it for analyzing the
-				// movement
-				if (startRow < ctr && ctr < endRow) {
-					double[] rowToStore = new double[6];
-					for (int i = 0; i < cells.length; i++) {
-						if (i == colPos[0]) {
-							cells[i] = currRow.getCell(colPos[2]);
-							rowToStore[0] = ((DoubleValue) cells[i])
-									.getDoubleValue();
-						} else if (i == colPos[1]) {
-							cells[i] = currRow.getCell(colPos[3]);
-							rowToStore[1] = ((DoubleValue) cells[i])
-									.getDoubleValue();
-						} else if (i == colPos[2]) {
-							cells[i] = currRow.getCell(colPos[0]);
-							rowToStore[2] = ((DoubleValue) cells[i])
-									.getDoubleValue();
-						} else if (i == colPos[3]) {
-							cells[i] = currRow.getCell(colPos[1]);
-							rowToStore[3] = ((DoubleValue) cells[i])
-									.getDoubleValue();
-						} else
-							cells[i] = currRow.getCell(i); // ##### default:
-															// transfer other
-															// columns. is this
-															// needed? #####
-					}
-					rowToStore[4] = ((DoubleValue) currRow.getCell(colPos[4]))
-							.getDoubleValue();
-					rowToStore[5] = ((DoubleValue) currRow.getCell(colPos[5]))
-							.getDoubleValue();
-					distTable.add(rowToStore);
-				} else {
-					for (int i = 0; i < cells.length; i++) {
-						if (i == colPos[0]) {
-							cells[i] = currRow.getCell(colPos[2]);
-						} else if (i == colPos[1]) {
-							cells[i] = currRow.getCell(colPos[3]);
-						} else if (i == colPos[2]) {
-							cells[i] = currRow.getCell(colPos[0]);
-						} else if (i == colPos[3]) {
-							cells[i] = currRow.getCell(colPos[1]);
-						} else
-							cells[i] = currRow.getCell(i); // ##### default:
-															// transfer other
-															// columns. is this
-															// needed? #####
-					}
-				}
-				outRow = new DefaultRow(currRow.getKey(), cells);
 
-			} else {
-				outRow = currRow;
-
-				// if row is inside the interval, store it for analyzing the
-				// movement
-				if (startRow < ctr && ctr < endRow) {
-					double[] rowToStore = new double[6];
-					for (int i = 0; i < 6; i++) {
-						rowToStore[i] = ((DoubleValue) currRow
-								.getCell(colPos[i])).getDoubleValue();
-					}
-					distTable.add(rowToStore);
-				}
+			// if row is inside the interval, store it for analyzing the
+			// movement
+			if (startRow < ctr && ctr < endRow) {
+				window.add(currPositions);
 			}
 
 			container.addRowToTable(outRow);
 			prevRow = outRow;
-			currRow = nextRow;
+			lastInRow = currRow;
+			double[] tmp = prevPositions;
+			prevPositions = currPositions;
+			currPositions = tmp;
 			exec.setProgress(ctr++ / numRows);
 		}
-		System.out.println("dist table size: " + distTable.size());
 
 		container.close();
 
 		// stores which end is the larva head
-		boolean isHeadEqualToEndOne = isHeadEqualToEndOne(distTable);
+		boolean isHeadEqualToEndOne = isHeadEqualToEndOne(window);
+		if (incremental && lastInRow != null) {
+			setLastRow(lastInRow, ctr, colPos, prevPositions,
+					isHeadEqualToEndOne);
+		}
+
+		m_outSpec = createOutSpec(inDataSpec, colPos, isHeadEqualToEndOne);
+		// change table spec only
+		BufferedDataTable outTable = exec.createSpecReplacerTable(
+				container.getTable(), m_outSpec);
+
+		return keepOutput(outTable, exec);
+	}
+
+	/**
+	 * Execution for tables which are already ordered by time. The rows are
+	 * read once and written directly with the final column names, so neither a
+	 * sorted copy nor an intermediate table is created. Only the first rows,
+	 * which are used for finding the head, are held back until the head is
+	 * known.
+	 * 
+	 * @param inTable
+	 *            incoming data table, ordered by ascending time
+	 * @param colPos
+	 *            positions of the columns
+	 * @param exec
+	 *            execution context
+	 * @return the processed data table
+	 * @throws InvalidSettingsException
+	 *             if the time values are not ascending
+	 */
+	private BufferedDataTable executeStreaming(BufferedDataTable inTable,
+			int[] colPos, ExecutionContext exec) throws Exception {
+
+		int numRows = inTable.getRowCount();
+		DataTableSpec inDataSpec = inTable.getDataTableSpec();
+
+		// rows used for analyzing the movement, written as soon as the head is
+		// known
+		DataRow[] windowRows = new DataRow[HEAD_WINDOW_SIZE];
+		LarvaTrajectory window = new LarvaTrajectory(NUM_POSITIONS,
+				HEAD_WINDOW_SIZE);
+		BufferedDataContainer container = null;
+
+		// aligned positions of the previous and the current row
+		double[] prevPositions = new double[NUM_POSITIONS];
+		double[] currPositions = new double[NUM_POSITIONS];
+
+		TimeOrderedRowIterator featureVectorIterator = createRowIterator(
+				inTable, colPos, true);
+		DataRow prevRow = null;
+		DataRow lastInRow = null;
+		int ctr = 0;
+
+		DataRow currRow;
+		while ((currRow = featureVectorIterator.next()) != null) {
+			exec.checkCanceled();
+			// align the ends to the previous row
+			readPositions(currRow, colPos, currPositions);
+			DataRow outRow = currRow;
+			if (prevRow != null && isSwapNeeded(prevPositions, currPositions)) {
+				outRow = swapEnds(currRow, colPos);
+				swapEnds(currPositions);
+			}
+
+			if (container == null) {
+				windowRows[ctr] = outRow;
+				window.add(currPositions);
+				if (ctr == HEAD_WINDOW_SIZE - 1) {
+					container = createHeadContainer(inDataSpec, colPos,
+							window, windowRows, exec);
+				}
+			} else {
+				container.addRowToTable(outRow);
+			}
+
+			prevRow = outRow;
+			lastInRow = currRow;
+			double[] tmp = prevPositions;
+			prevPositions = currPositions;
+			currPositions = tmp;
+			exec.setProgress((double) ++ctr / numRows);
+		}
+
+		if (container == null) {
+			// the table is shorter than the window
+			container = createHeadContainer(inDataSpec, colPos, window,
+					windowRows, exec);
+		}
+		container.close();
+		if (m_incrementalSelection.getBooleanValue() && lastInRow != null) {
+			setLastRow(lastInRow, ctr, colPos, prevPositions,
+					isHeadEqualToEndOne(window));
+		}
+		return container.getTable();
+	}
+
+	/**
+	 * Execution which continues the previous execution. The rows of the
+	 * previous execution are skipped, if they are unchanged, and taken from
+	 * its output. The ends of the first new row are aligned to the last
+	 * processed row and the head is taken from the previous execution, so the
+	 * outgoing table holds the previous output followed by the new rows.
+	 * 
+	 * @param featureTable
+	 *            incoming data table, ordered by time
+	 * @param inDataSpec
+	 *            spec of the incoming table
+	 * @param colPos
+	 *            positions of the columns
+	 * @param checkOrder
+	 *            if true, the time values have to be ascending
+	 * @param exec
+	 *            execution context
+	 * @return the processed data table, null if the incoming table does not
+	 *         start with the processed rows, then the state is dropped
+	 * @throws InvalidSettingsException
+	 *             if the order is checked and the time values are not
+	 *             ascending
+	 */
+	private BufferedDataTable executeIncremental(
+			BufferedDataTable featureTable, DataTableSpec inDataSpec,
+			int[] colPos, boolean checkOrder, ExecutionContext exec)
+			throws Exception {
+
+		int numRows = featureTable.getRowCount();
+		TimeOrderedRowIterator featureVectorIterator = createRowIterator(
+				featureTable, colPos, checkOrder);
+
+		// the processed rows have to be unchanged
+		DataRow currRow = null;
+		int ctr = 0;
+		while (ctr < m_numProcessedRows
+				&& (currRow = featureVectorIterator.next()) != null) {
+			exec.checkCanceled();
+			ctr++;
+		}
+		if (ctr < m_numProcessedRows || !isLastRow(currRow, colPos)) {
+			clearState();
+			setWarningMessage("The incoming rows do not continue the"
+					+ " processed rows, all rows are processed again.");
+			return null;
+		}
+
+		m_outSpec = createOutSpec(inDataSpec, colPos,
+				m_lastIsHeadEqualToEndOne);
+		BufferedDataContainer container = exec.createDataContainer(m_outSpec,
+				true);
+		RowIterator prevOutRows = m_prevOutput.iterator();
+		while (prevOutRows.hasNext()) {
+			container.addRowToTable(prevOutRows.next());
+		}
+
+		// aligned positions of the previous and the current row
+		double[] prevPositions = m_lastPositions.clone();
+		double[] currPositions = new double[NUM_POSITIONS];
+		DataRow lastInRow = null;
+
+		while ((currRow = featureVectorIterator.next()) != null) {
+			exec.checkCanceled();
+			readPositions(currRow, colPos, currPositions);
+			DataRow outRow = currRow;
+			if (isSwapNeeded(prevPositions, currPositions)) {
+				outRow = swapEnds(currRow, colPos);
+				swapEnds(currPositions);
+			}
+			container.addRowToTable(outRow);
+
+			lastInRow = currRow;
+			double[] tmp = prevPositions;
+			prevPositions = currPositions;
+			currPositions = tmp;
+			exec.setProgress((double) ++ctr / numRows);
+		}
+
+		container.close();
+		if (lastInRow != null) {
+			setLastRow(lastInRow, ctr, colPos, prevPositions,
+					m_lastIsHeadEqualToEndOne);
+		}
+		return container.getTable();
+	}
+
+	/**
+	 * Keeps the last processed row for continuing with it in the next
+	 * execution.
+	 * 
+	 * @param lastRow
+	 *            the last processed incoming row, before aligning its ends
+	 * @param numProcessedRows
+	 *            number of processed rows up to the last one
+	 * @param colPos
+	 *            positions of the columns
+	 * @param positions
+	 *            aligned positions of the last row
+	 * @param isHeadEqualToEndOne
+	 *            true if end one of the larva is the head
+	 */
+	private void setLastRow(DataRow lastRow, int numProcessedRows,
+			int[] colPos, double[] positions, boolean isHeadEqualToEndOne) {
+		m_lastPositions = positions.clone();
+		m_lastIsHeadEqualToEndOne = isHeadEqualToEndOne;
+		m_numProcessedRows = numProcessedRows;
+		m_lastRowKey = lastRow.getKey().getString();
+		m_lastValues = new double[colPos.length];
+		for (int i = 0; i < colPos.length; i++) {
+			m_lastValues[i] = ((DoubleValue) lastRow.getCell(colPos[i]))
+					.getDoubleValue();
+		}
+	}
+
+	/**
+	 * @param row
+	 *            an incoming row, before aligning its ends
+	 * @param colPos
+	 *            positions of the columns
+	 * @return true if the row has the key and the values of the last
+	 *         processed row
+	 */
+	private boolean isLastRow(DataRow row, int[] colPos) {
+		if (!row.getKey().getString().equals(m_lastRowKey)) {
+			return false;
+		}
+		for (int i = 0; i < colPos.length; i++) {
+			double value = ((DoubleValue) row.getCell(colPos[i]))
+					.getDoubleValue();
+			if (Double.doubleToLongBits(value) != Double
+					.doubleToLongBits(m_lastValues[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Keeps the outgoing table if the incremental processing has a state, so
+	 * the next execution can append its rows to it.
+	 * 
+	 * @param outTable
+	 *            the outgoing table
+	 * @param exec
+	 *            execution context
+	 * @return the outgoing tables of the node
+	 * @throws CanceledExecutionException
+	 *             if the execution was canceled
+	 */
+	private BufferedDataTable[] keepOutput(BufferedDataTable outTable,
+			ExecutionContext exec) throws CanceledExecutionException {
+		clearOutput();
+		if (m_lastPositions != null) {
+			m_prevOutput = DataContainer.cache(outTable, exec);
+		}
+		return new BufferedDataTable[] { outTable };
+	}
+
+	/**
+	 * Drops the state of the incremental processing and its outgoing table.
+	 */
+	private void clearState() {
+		m_lastPositions = null;
+		clearOutput();
+	}
+
+	/**
+	 * Drops the kept outgoing table.
+	 */
+	private void clearOutput() {
+		if (m_prevOutput != null) {
+			m_prevOutput.clear();
+			m_prevOutput = null;
+		}
+	}
+
+	/**
+	 * Execution which finds the head for each row. The ends are aligned to the
+	 * previous row as usual, but the movement is scored in a window of
+	 * {@link #HEAD_WINDOW_SIZE} rows around each row. If the alignment failed
+	 * somewhere, e.g. while the larva was occluded or touched another larva,
+	 * the score of the windows behind this point changes its sign and the head
+	 * is decided again. The head is written into the columns of end one.
+	 * 
+	 * Only the rows of half a window are held back and the scores of one
+	 * window are kept in a ring buffer, so the memory does not depend on the
+	 * length of the table.
+	 * 
+	 * @param featureTable
+	 *            incoming data table, ordered by time
+	 * @param numRows
+	 *            number of rows of the incoming table
+	 * @param inDataSpec
+	 *            spec of the incoming table
+	 * @param colPos
+	 *            positions of the columns
+	 * @param checkOrder
+	 *            if true, the time values have to be ascending
+	 * @param exec
+	 *            execution context
+	 * @return the processed data table
+	 * @throws InvalidSettingsException
+	 *             if the order is checked and the time values are not
+	 *             ascending
+	 */
+	private BufferedDataTable executeSlidingWindows(
+			BufferedDataTable featureTable, int numRows,
+			DataTableSpec inDataSpec, int[] colPos, boolean checkOrder,
+			ExecutionContext exec) throws Exception {
+
+		m_outSpec = createOutSpec(inDataSpec, colPos, true);
+		BufferedDataContainer container = exec.createDataContainer(m_outSpec,
+				true);
+
+		// rows which wait for the second half of their window and if their
+		// ends were swapped for aligning them
+		int delay = HEAD_WINDOW_SIZE / 2;
+		DataRow[] pendingRows = new DataRow[delay + 1];
+		boolean[] pendingSwapped = new boolean[delay + 1];
+		// scores of the rows of the window and their sum
+		int[] evidence = new int[HEAD_WINDOW_SIZE];
+		int windowEvidence = 0;
+
+		// aligned positions of the previous and the current row, and of the
+		// last three rows for scoring the movement
+		double[] prevPositions = new double[NUM_POSITIONS];
+		double[] currPositions = new double[NUM_POSITIONS];
+		LarvaTrajectory lastPositions = new LarvaTrajectory(NUM_POSITIONS, 3);
+		for (int i = 0; i < 3; i++) {
+			lastPositions.add(currPositions);
+		}
+
+		boolean isHeadEqualToEndOne = true;
+		TimeOrderedRowIterator featureVectorIterator = createRowIterator(
+				featureTable, colPos, checkOrder);
+		DataRow currRow = featureVectorIterator.next();
+		// number of aligned rows, number of written rows and the row at the
+		// end of the current window
+		int numAligned = 0;
+		int numWritten = 0;
+		int windowEnd = 0;
+
+		while (currRow != null || numWritten < numAligned) {
+			exec.checkCanceled();
+			int rowEvidence = 0;
+			if (currRow != null) {
+				// align the ends to the previous row
+				readPositions(currRow, colPos, currPositions);
+				boolean swapped = numAligned > 0
+						&& isSwapNeeded(prevPositions, currPositions);
+				if (swapped) {
+					swapEnds(currPositions);
+				}
+
+				int curr = numAligned % 3;
+				lastPositions.set(curr, currPositions);
+				if (numAligned > 0) {
+					rowEvidence = headEvidence(lastPositions, curr,
+							(numAligned - 1) % 3,
+							Math.max(numAligned - 2, 0) % 3);
+				}
+				pendingRows[numAligned % pendingRows.length] = currRow;
+				pendingSwapped[numAligned % pendingRows.length] = swapped;
+				numAligned++;
+
+				double[] tmp = prevPositions;
+				prevPositions = currPositions;
+				currPositions = tmp;
+				currRow = featureVectorIterator.next();
+			}
+			// behind the last row the window moves on without new scores
+
+			windowEvidence += rowEvidence - evidence[windowEnd % evidence.length];
+			evidence[windowEnd % evidence.length] = rowEvidence;
+			int row = windowEnd - delay;
+			windowEnd++;
+			if (row < 0) {
+				continue;
+			}
+
+			// the first row takes the majority of its window, afterwards the
+			// head only changes if the window clearly disagrees
+			if (row == 0) {
+				isHeadEqualToEndOne = windowEvidence >= 0;
+			} else if (windowEvidence >= HEAD_FLIP_EVIDENCE) {
+				isHeadEqualToEndOne = true;
+			} else if (windowEvidence <= -HEAD_FLIP_EVIDENCE) {
+				isHeadEqualToEndOne = false;
+			}
+			int pending = row % pendingRows.length;
+			DataRow outRow = pendingRows[pending];
+			// the aligned row has end one as head, either as it is or swapped
+			if (pendingSwapped[pending] == isHeadEqualToEndOne) {
+				outRow = swapEnds(outRow, colPos);
+			}
+			container.addRowToTable(outRow);
+			pendingRows[pending] = null;
+			numWritten++;
+			exec.setProgress((double) numWritten / numRows);
+		}
+
+		container.close();
+		return container.getTable();
+	}
+
+	/**
+	 * Execution which assigns the ends of all rows at once. Each row has two
+	 * states, end one or end two is the head. Changing from one row to the
+	 * next costs the displacement of the ends relative to the center and the
+	 * change of the orientation, and moving backwards costs a multiple of the
+	 * backward distance, as larvae mainly crawl forward. The path through the states
+	 * with minimum total cost is found by dynamic programming (Viterbi), so a
+	 * single bad row can not mix up the ends of all following rows.
+	 * 
+	 * The costs are computed while reading the table, only the decisions of
+	 * the path are kept for each row. The table is read again for writing
+	 * the rows with the head in the columns of end one.
+	 * 
+	 * @param featureTable
+	 *            incoming data table, ordered by time
+	 * @param numRows
+	 *            number of rows of the incoming table
+	 * @param inDataSpec
+	 *            spec of the incoming table
+	 * @param colPos
+	 *            positions of the columns
+	 * @param checkOrder
+	 *            if true, the time values have to be ascending
+	 * @param exec
+	 *            execution context
+	 * @return the processed data table
+	 * @throws InvalidSettingsException
+	 *             if the order is checked and the time values are not
+	 *             ascending
+	 */
+	private BufferedDataTable executeOptimalAssignment(
+			BufferedDataTable featureTable, int numRows,
+			DataTableSpec inDataSpec, int[] colPos, boolean checkOrder,
+			ExecutionContext exec) throws Exception {
 
+		// for each row and state, true if the cheapest path to the state
+		// comes from the other state of the previous row
+		boolean[] endOneFromEndTwo = new boolean[numRows];
+		boolean[] endTwoFromEndOne = new boolean[numRows];
+		// cost of the cheapest path to the current row if end one or end two
+		// is the head
+		double endOneCost = 0;
+		double endTwoCost = 0;
+
+		double[] prevPositions = new double[NUM_POSITIONS];
+		double[] currPositions = new double[NUM_POSITIONS];
+		double[] costs = new double[2];
+
+		TimeOrderedRowIterator rows = createRowIterator(featureTable, colPos,
+				checkOrder);
+		int ctr = 0;
+		for (DataRow row = rows.next(); row != null; row = rows.next()) {
+			exec.checkCanceled();
+			readPositions(row, colPos, currPositions);
+			if (ctr > 0) {
+				computeAssignmentCosts(prevPositions, currPositions, costs);
+				double endOneKeep = endOneCost + costs[0];
+				double endOneChange = endTwoCost + costs[1];
+				double endTwoKeep = endTwoCost + costs[0];
+				double endTwoChange = endOneCost + costs[1];
+				endOneFromEndTwo[ctr] = endOneChange < endOneKeep;
+				endTwoFromEndOne[ctr] = endTwoChange < endTwoKeep;
+
+				double forward = computeForwardMotion(prevPositions,
+						currPositions);
+				endOneCost = Math.min(endOneKeep, endOneChange)
+						+ BACKWARD_MOTION_COST * Math.max(-forward, 0);
+				endTwoCost = Math.min(endTwoKeep, endTwoChange)
+						+ BACKWARD_MOTION_COST * Math.max(forward, 0);
+			}
+			double[] tmp = prevPositions;
+			prevPositions = currPositions;
+			currPositions = tmp;
+			exec.setProgress((double) ++ctr / (2 * numRows));
+		}
+
+		// trace the cheapest path back from the last row
+		boolean[] isHeadEqualToEndTwo = new boolean[ctr];
+		boolean state = endTwoCost < endOneCost;
+		for (int i = ctr - 1; i >= 0; i--) {
+			isHeadEqualToEndTwo[i] = state;
+			if (state ? endTwoFromEndOne[i] : endOneFromEndTwo[i]) {
+				state = !state;
+			}
+		}
+
+		m_outSpec = createOutSpec(inDataSpec, colPos, true);
+		BufferedDataContainer container = exec.createDataContainer(m_outSpec,
+				true);
+		rows = createRowIterator(featureTable, colPos, false);
+		ctr = 0;
+		for (DataRow row = rows.next(); row != null; row = rows.next()) {
+			exec.checkCanceled();
+			container.addRowToTable(isHeadEqualToEndTwo[ctr] ? swapEnds(row,
+					colPos) : row);
+			exec.setProgress((double) (numRows + ++ctr) / (2 * numRows));
+		}
+		container.close();
+		return container.getTable();
+	}
+
+	/**
+	 * Costs of aligning the ends of the current row to the ends of the
+	 * previous row: the distance the ends moved relative to the center plus
+	 * the change of the orientation, as arc length of half the larva.
+	 * 
+	 * @param prevPositions
+	 *            positions of the previous row
+	 * @param currPositions
+	 *            positions of the current row
+	 * @param costs
+	 *            array of two values to fill, the costs if the ends are kept
+	 *            and if they are exchanged
+	 */
+	private void computeAssignmentCosts(double[] prevPositions,
+			double[] currPositions, double[] costs) {
+
+		// the ends are shifted by the larva center
+		double prevEndOneX = prevPositions[LarvaTrajectory.HEAD_X]
+				- prevPositions[LarvaTrajectory.CENTER_X];
+		double prevEndOneY = prevPositions[LarvaTrajectory.HEAD_Y]
+				- prevPositions[LarvaTrajectory.CENTER_Y];
+		double prevEndTwoX = prevPositions[LarvaTrajectory.TAIL_X]
+				- prevPositions[LarvaTrajectory.CENTER_X];
+		double prevEndTwoY = prevPositions[LarvaTrajectory.TAIL_Y]
+				- prevPositions[LarvaTrajectory.CENTER_Y];
+		double currEndOneX = currPositions[LarvaTrajectory.HEAD_X]
+				- currPositions[LarvaTrajectory.CENTER_X];
+		double currEndOneY = currPositions[LarvaTrajectory.HEAD_Y]
+				- currPositions[LarvaTrajectory.CENTER_Y];
+		double currEndTwoX = currPositions[LarvaTrajectory.TAIL_X]
+				- currPositions[LarvaTrajectory.CENTER_X];
+		double currEndTwoY = currPositions[LarvaTrajectory.TAIL_Y]
+				- currPositions[LarvaTrajectory.CENTER_Y];
+
+		// orientation from end two to end one
+		double prevAxisX = prevEndOneX - prevEndTwoX;
+		double prevAxisY = prevEndOneY - prevEndTwoY;
+		double currAxisX = currEndOneX - currEndTwoX;
+		double currAxisY = currEndOneY - currEndTwoY;
+		double angle = Math.abs(Math.atan2(prevAxisX * currAxisY - prevAxisY
+				* currAxisX, prevAxisX * currAxisX + prevAxisY * currAxisY));
+		double halfLength = (Point2D.distance(0, 0, prevAxisX, prevAxisY) + Point2D
+				.distance(0, 0, currAxisX, currAxisY)) / 4;
+
+		costs[0] = Point2D.distance(prevEndOneX, prevEndOneY, currEndOneX,
+				currEndOneY)
+				+ Point2D.distance(prevEndTwoX, prevEndTwoY, currEndTwoX,
+						currEndTwoY) + halfLength * angle;
+		costs[1] = Point2D.distance(prevEndOneX, prevEndOneY, currEndTwoX,
+				currEndTwoY)
+				+ Point2D.distance(prevEndTwoX, prevEndTwoY, currEndOneX,
+						currEndOneY) + halfLength * (Math.PI - angle);
+	}
+
+	/**
+	 * Distance the center moved in the direction of end one.
+	 * 
+	 * @param prevPositions
+	 *            positions of the previous row
+	 * @param currPositions
+	 *            positions of the current row
+	 * @return the distance, negative if the center moved towards end two
+	 */
+	private double computeForwardMotion(double[] prevPositions,
+			double[] currPositions) {
+		double axisX = currPositions[LarvaTrajectory.HEAD_X]
+				- currPositions[LarvaTrajectory.TAIL_X];
+		double axisY = currPositions[LarvaTrajectory.HEAD_Y]
+				- currPositions[LarvaTrajectory.TAIL_Y];
+		double axisLength = Point2D.distance(0, 0, axisX, axisY);
+		if (axisLength == 0) {
+			return 0;
+		}
+		return ((currPositions[LarvaTrajectory.CENTER_X] - prevPositions[LarvaTrajectory.CENTER_X])
+				* axisX + (currPositions[LarvaTrajectory.CENTER_Y] - prevPositions[LarvaTrajectory.CENTER_Y])
+				* axisY)
+				/ axisLength;
+	}
+
+	/**
+	 * Finds the head and creates the outgoing container, which already
+	 * contains the rows used for analyzing the movement.
+	 * 
+	 * @param inDataSpec
+	 *            spec of the incoming table
+	 * @param colPos
+	 *            positions of the columns
+	 * @param window
+	 *            positions of the rows used for analyzing the movement
+	 * @param windowRows
+	 *            the aligned rows used for analyzing the movement, one per
+	 *            row of the window
+	 * @param exec
+	 *            execution context
+	 * @return the container for the remaining rows
+	 */
+	private BufferedDataContainer createHeadContainer(
+			DataTableSpec inDataSpec, int[] colPos,
+			LarvaTrajectory window, DataRow[] windowRows,
+			ExecutionContext exec) {
+		m_outSpec = createOutSpec(inDataSpec, colPos,
+				isHeadEqualToEndOne(window));
+		BufferedDataContainer container = exec.createDataContainer(m_outSpec,
+				true);
+		for (int i = 0; i < window.size(); i++) {
+			container.addRowToTable(windowRows[i]);
+			windowRows[i] = null;
+		}
+		return container;
+	}
+
+	/**
+	 * Exchanges the cells of the two larva ends.
+	 * 
+	 * @param row
+	 *            the row
+	 * @param colPos
+	 *            positions of the columns
+	 * @return new row with the same key and exchanged ends
+	 */
+	private DataRow swapEnds(DataRow row, int[] colPos) {
+		DataCell[] cells = new DataCell[row.getNumCells()];
+		for (int i = 0; i < cells.length; i++) {
+			cells[i] = row.getCell(i);
+		}
+		cells[colPos[0]] = row.getCell(colPos[2]);
+		cells[colPos[1]] = row.getCell(colPos[3]);
+		cells[colPos[2]] = row.getCell(colPos[0]);
+		cells[colPos[3]] = row.getCell(colPos[1]);
+		return new DefaultRow(row.getKey(), cells);
+	}
+
+	/**
+	 * Reads the positions of the larva ends and the center, which are needed
+	 * for aligning the ends and analyzing the movement.
+	 * 
+	 * @param row
+	 *            the row
+	 * @param colPos
+	 *            positions of the columns
+	 * @param positions
+	 *            array of {@link #NUM_POSITIONS} values to fill, in the order
+	 *            of the columns of a {@link LarvaTrajectory}
+	 */
+	private void readPositions(DataRow row, int[] colPos, double[] positions) {
+		for (int i = 0; i < NUM_POSITIONS; i++) {
+			positions[i] = ((DoubleValue) row.getCell(colPos[i]))
+					.getDoubleValue();
+		}
+	}
+
+	/**
+	 * Exchanges the positions of the two larva ends.
+	 * 
+	 * @param positions
+	 *            positions read by {@link #readPositions}
+	 */
+	private void swapEnds(double[] positions) {
+		double tmp = positions[LarvaTrajectory.HEAD_X];
+		positions[LarvaTrajectory.HEAD_X] = positions[LarvaTrajectory.TAIL_X];
+		positions[LarvaTrajectory.TAIL_X] = tmp;
+		tmp = positions[LarvaTrajectory.HEAD_Y];
+		positions[LarvaTrajectory.HEAD_Y] = positions[LarvaTrajectory.TAIL_Y];
+		positions[LarvaTrajectory.TAIL_Y] = tmp;
+	}
+
+	/**
+	 * Creates the spec of the outgoing table, which renames the columns of the
+	 * larva ends to head and tail.
+	 * 
+	 * @param inDataSpec
+	 *            spec of the incoming table
+	 * @param colPos
+	 *            positions of the columns
+	 * @param isHeadEqualToEndOne
+	 *            true if end one of the larva is the head
+	 * @return the spec of the outgoing table
+	 */
+	private DataTableSpec createOutSpec(DataTableSpec inDataSpec, int[] colPos,
+			boolean isHeadEqualToEndOne) {
+		int numColumns = inDataSpec.getNumColumns();
 		// creation of new column specs renaming the columns of larva ends
 		DataColumnSpec[] colSpecs = new DataColumnSpec[numColumns];
 		for (int i = 0; i < numColumns; i++) {
@@ -313,111 +1077,111 @@ public class LarvaHeadNodeModel extends NodeModel{
 			}
 		}
 		// create new data table spec using column specs
-		m_outSpec = new DataTableSpec(colSpecs);
-		// change table spec only
-		BufferedDataTable outTable = exec.createSpecReplacerTable(
-				container.getTable(), m_outSpec);
-
-		return new BufferedDataTable[] { outTable };
+		return new DataTableSpec(colSpecs);
 	}
 
 	/**
-	 * Merges two rows in a naive way by calculating the mean of double values.
+	 * Creates the iterator over the rows of a table which is ordered by time,
+	 * rows with equal time are merged if selected in the dialog.
 	 * 
-	 * @param currRow
-	 *            first row to merge
-	 * @param nextRow
-	 *            second row to merge
+	 * @param featureTable
+	 *            the table
 	 * @param colPos
 	 *            positions of the columns
-	 * @return the current row containing new double values
-	 */
-	private DataRow mergeRows(DataRow currRow, DataRow nextRow, int[] colPos) {
-		DataCell[] cells = new DataCell[currRow.getNumCells()];
-		for (int i = 0; i < currRow.getNumCells(); i++) {
-			if (currRow.getCell(i).getType() == DoubleCell.TYPE) {
-				cells[i] = new DoubleCell(
-						(((DoubleValue) currRow.getCell(i)).getDoubleValue() + ((DoubleValue) nextRow
-								.getCell(i)).getDoubleValue()) / 2);
-			} else {
-				cells[i] = currRow.getCell(i);
-			}
+	 * @param checkOrder
+	 *            if true, the time values have to be ascending
+	 * @return the iterator
+	 * @throws InvalidSettingsException
+	 *             if the merge method is unknown
+	 */
+	private TimeOrderedRowIterator createRowIterator(
+			BufferedDataTable featureTable, int[] colPos, boolean checkOrder)
+			throws InvalidSettingsException {
+		return new TimeOrderedRowIterator(featureTable.iterator(),
+				featureTable.getDataTableSpec(), colPos[8],
+				m_mergeEqualTimeSelection.getBooleanValue() ? m_mergeMethodSelection
+						.getStringValue() : null, checkOrder);
+	}
+
+	/**
+	 * @param inDataSpec
+	 *            spec of the incoming table
+	 * @return the settings (except the incremental processing) and the names
+	 *         of the incoming columns, the state can only be continued with
+	 *         the same key
+	 */
+	private String createStateKey(DataTableSpec inDataSpec) {
+		StringBuilder key = new StringBuilder(getSettingsKey());
+		for (int i = 0; i < inDataSpec.getNumColumns(); i++) {
+			key.append(inDataSpec.getColumnSpec(i).getName()).append('\n');
+		}
+		return key.toString();
+	}
+
+	/**
+	 * @return the values of the settings except the incremental processing
+	 */
+	private String getSettingsKey() {
+		StringBuilder key = new StringBuilder();
+		SettingsModelString[] strings = new SettingsModelString[] {
+				m_larvaEndOneXColumnSelection, m_larvaEndOneYColumnSelection,
+				m_larvaEndTwoXColumnSelection, m_larvaEndTwoYColumnSelection,
+				m_larvaCenterXColumnSelection, m_larvaCenterYColumnSelection,
+				m_larvaCentroidXColumnSelection,
+				m_larvaCentroidYColumnSelection, m_larvaTimeColumnSelection,
+				m_mergeMethodSelection, m_headDetectionSelection,
+				m_endAssignmentSelection };
+		for (SettingsModelString model : strings) {
+			key.append(model.getStringValue()).append('\n');
 		}
-		DataRow mergedRow = new DefaultRow(currRow.getKey(), cells);
-		return mergedRow;
+		SettingsModelBoolean[] booleans = new SettingsModelBoolean[] {
+				m_sortAccordingToTimeSelection, m_mergeEqualTimeSelection,
+				m_streamOrderedInputSelection };
+		for (SettingsModelBoolean model : booleans) {
+			key.append(model.getBooleanValue()).append('\n');
+		}
+		return key.toString();
 	}
 
 	/**
 	 * Checks which point of the current row belongs to which point in the
 	 * previous row.
 	 * 
-	 * @param prevRow
-	 *            previous row
-	 * @param currRow
-	 *            current row
-	 * @param colPos
-	 *            positions of the columns
+	 * @param prevPositions
+	 *            aligned positions of the previous row
+	 * @param currPositions
+	 *            positions of the current row
 	 * @return false if the related point is inside the same column, true if not
 	 */
-	private boolean isSwapNeeded(DataRow prevRow, DataRow currRow, int[] colPos) {
-
-		Point2D prevEndOne = new Point2D.Double();
-		prevEndOne.setLocation(
-				((DoubleValue) prevRow.getCell(colPos[0])).getDoubleValue(),
-				((DoubleValue) prevRow.getCell(colPos[1])).getDoubleValue());
-
-		Point2D prevEndTwo = new Point2D.Double();
-		prevEndTwo.setLocation(
-				((DoubleValue) prevRow.getCell(colPos[2])).getDoubleValue(),
-				((DoubleValue) prevRow.getCell(colPos[3])).getDoubleValue());
-
-		Point2D currEndOne = new Point2D.Double();
-		currEndOne.setLocation(
-				((DoubleValue) currRow.getCell(colPos[0])).getDoubleValue(),
-				((DoubleValue) currRow.getCell(colPos[1])).getDoubleValue());
-
-		Point2D currEndTwo = new Point2D.Double();
-		currEndTwo.setLocation(
-				((DoubleValue) currRow.getCell(colPos[2])).getDoubleValue(),
-				((DoubleValue) currRow.getCell(colPos[3])).getDoubleValue());
-
-		/*
-		 * Following lines are needed if points should be shifted by the larva
-		 * midpoint instead of the larva center
-		 */
-		// Point2D midPointPrev = new Point2D.Double();
-		// midPointPrev.setLocation(
-		// Math.abs((prevEndTwo.getX() + prevEndOne.getX())) / 2,
-		// Math.abs((prevEndTwo.getY() + prevEndOne.getY())) / 2);
-		// Point2D midPointCurr = new Point2D.Double();
-		// midPointCurr.setLocation(
-		// Math.abs((currEndTwo.getX() + currEndOne.getX())) / 2,
-		// Math.abs((currEndTwo.getY() + currEndOne.getY())) / 2);
-		//
-		// prevEndOne = shiftPoint(prevEndOne, midPointPrev);
-		// prevEndTwo = shiftPoint(prevEndTwo, midPointPrev);
-		// currEndOne = shiftPoint(currEndOne, midPointCurr);
-		// currEndTwo = shiftPoint(currEndTwo, midPointCurr);
-
-		Point2D prevCenter = new Point2D.Double();
-		Point2D currCenter = new Point2D.Double();
-		prevCenter.setLocation(
-				((DoubleValue) prevRow.getCell(colPos[4])).getDoubleValue(),
-				((DoubleValue) prevRow.getCell(colPos[5])).getDoubleValue());
-		currCenter.setLocation(
-				((DoubleValue) currRow.getCell(colPos[4])).getDoubleValue(),
-				((DoubleValue) currRow.getCell(colPos[5])).getDoubleValue());
-
-		prevEndOne = shiftPoint(prevEndOne, prevCenter);
-		prevEndTwo = shiftPoint(prevEndTwo, prevCenter);
-		currEndOne = shiftPoint(currEndOne, currCenter);
-		currEndTwo = shiftPoint(currEndTwo, currCenter);
+	private boolean isSwapNeeded(double[] prevPositions, double[] currPositions) {
+
+		// the ends are shifted by the larva center
+		double prevEndOneX = prevPositions[LarvaTrajectory.HEAD_X]
+				- prevPositions[LarvaTrajectory.CENTER_X];
+		double prevEndOneY = prevPositions[LarvaTrajectory.HEAD_Y]
+				- prevPositions[LarvaTrajectory.CENTER_Y];
+		double prevEndTwoX = prevPositions[LarvaTrajectory.TAIL_X]
+				- prevPositions[LarvaTrajectory.CENTER_X];
+		double prevEndTwoY = prevPositions[LarvaTrajectory.TAIL_Y]
+				- prevPositions[LarvaTrajectory.CENTER_Y];
+		double currEndOneX = currPositions[LarvaTrajectory.HEAD_X]
+				- currPositions[LarvaTrajectory.CENTER_X];
+		double currEndOneY = currPositions[LarvaTrajectory.HEAD_Y]
+				- currPositions[LarvaTrajectory.CENTER_Y];
+		double currEndTwoX = currPositions[LarvaTrajectory.TAIL_X]
+				- currPositions[LarvaTrajectory.CENTER_X];
+		double currEndTwoY = currPositions[LarvaTrajectory.TAIL_Y]
+				- currPositions[LarvaTrajectory.CENTER_Y];
 
 		// distances
-		double dist11 = prevEndOne.distance(currEndOne);
-		double dist12 = prevEndOne.distance(currEndTwo);
-		double dist21 = prevEndTwo.distance(currEndOne);
-		double dist22 = prevEndTwo.distance(currEndTwo);
+		double dist11 = Point2D.distance(prevEndOneX, prevEndOneY,
+				currEndOneX, currEndOneY);
+		double dist12 = Point2D.distance(prevEndOneX, prevEndOneY,
+				currEndTwoX, currEndTwoY);
+		double dist21 = Point2D.distance(prevEndTwoX, prevEndTwoY,
+				currEndOneX, currEndOneY);
+		double dist22 = Point2D.distance(prevEndTwoX, prevEndTwoY,
+				currEndTwoX, currEndTwoY);
 
 		/*
 		 * find the minimum distance to the previous point for both points. if
@@ -441,88 +1205,69 @@ public class LarvaHeadNodeModel extends NodeModel{
 	}
 
 	/**
-	 * Shift a 2D point by subtracting another 2D point.
+	 * Analyzes if end one of the larva is the head.
 	 * 
-	 * @param pointToShift point which should be shifted
-	 * @param shiftValues point which should be subtracted
-	 * @return the shifted point
+	 * @param window
+	 *            positions of all rows which should be used for analyzing the
+	 *            movement
+	 * @return true if end one is the head of the larva, false if not
 	 */
-	private Point2D shiftPoint(Point2D pointToShift, Point2D shiftValues) {
-		pointToShift.setLocation(pointToShift.getX() - shiftValues.getX(),
-				pointToShift.getY() - shiftValues.getY());
-		return pointToShift;
+	private boolean isHeadEqualToEndOne(LarvaTrajectory window) {
+		if (window.size() > 1) {
+			int evidence = 0;
+			for (int i = 1; i < window.size(); i++) {
+				evidence += headEvidence(window, i, i - 1, Math.max(i - 2, 0));
+			}
+			// checks which point is classified as tail more often
+			return evidence >= 0;
+		}
+		return false;
 	}
 
 	/**
-	 * Analyzes if end one of the larva is the head.
+	 * Scores the movement of the larva ends between two rows. A point which
+	 * gets closer to the (earlier) center is classified as tail.
 	 * 
-	 * @param distTable table containing all rows which should be used for analyzing the movement
-	 * @return true if end one is the head of the larva, false if not
+	 * @param positions
+	 *            aligned positions
+	 * @param curr
+	 *            the current row
+	 * @param prev
+	 *            the previous row
+	 * @param prevPrev
+	 *            the row before the previous row
+	 * @return 1 if only end two is classified as tail, -1 if only end one is
+	 *         classified as tail, 0 otherwise
 	 */
-	private boolean isHeadEqualToEndOne(ArrayList<double[]> distTable) {
-		if (distTable.size() > 1) {
-			Iterator<double[]> iter = distTable.iterator();
-			double[] prevRow = iter.next();
-			double[] currRow;
-
-			Point2D prevPrevCenter = new Point2D.Double();
-			Point2D prevEndOne = new Point2D.Double();
-			Point2D prevEndTwo = new Point2D.Double();
-			Point2D prevCenter = new Point2D.Double();
-			Point2D currEndOne = new Point2D.Double();
-			Point2D currEndTwo = new Point2D.Double();
-			Point2D currCenter = new Point2D.Double();
-
-			prevEndOne.setLocation(prevRow[0], prevRow[1]);
-			prevEndTwo.setLocation(prevRow[2], prevRow[3]);
-			prevCenter.setLocation(prevRow[4], prevRow[5]);
-			prevPrevCenter.setLocation(prevCenter);
-
-			int endOneIsTailCtr = 0;
-			int endTwoIsTailCtr = 0;
-			int loopCtr = 0;
-			while (iter.hasNext()) {
-				currRow = iter.next();
-				currEndOne.setLocation(currRow[0], currRow[1]);
-				currEndTwo.setLocation(currRow[2], currRow[3]);
-				currCenter.setLocation(currRow[4], currRow[5]);
-
-				double distCenters = prevCenter.distance(currCenter);
-				Point2D pointOfComparison;
-				// if larva moved slowly use an earlier center
-				if (distCenters < 3) {
-					pointOfComparison = prevPrevCenter;
-				} else {
-					pointOfComparison = prevCenter;
-				}
-
-				double distPrev1 = prevEndOne.distance(pointOfComparison);
-				double distPrev2 = prevEndTwo.distance(pointOfComparison);
-				double distCurr1 = currEndOne.distance(pointOfComparison);
-				double distCurr2 = currEndTwo.distance(pointOfComparison);
-
-				// counts how often a point is classified as tail
-				if (distPrev1 - distCurr1 >= 0) {
-					endOneIsTailCtr++;
-				}
-				if (distPrev2 - distCurr2 >= 0) {
-					endTwoIsTailCtr++;
-				}
+	private int headEvidence(LarvaTrajectory positions, int curr, int prev,
+			int prevPrev) {
+		double distCenters = positions.distance(LarvaTrajectory.CENTER_X,
+				prev, LarvaTrajectory.CENTER_X, curr);
+		// if larva moved slowly use an earlier center
+		int pointOfComparison;
+		if (distCenters < 3) {
+			pointOfComparison = prevPrev;
+		} else {
+			pointOfComparison = prev;
+		}
 
-				prevEndOne.setLocation(currEndOne);
-				prevEndTwo.setLocation(currEndTwo);
-				prevPrevCenter.setLocation(prevCenter);
-				prevCenter.setLocation(currCenter);
-				loopCtr++;
-			}
-			// checks which point is classified as tail more often
-			if (endOneIsTailCtr > endTwoIsTailCtr) {
-				return false;
-			} else {
-				return true;
-			}
+		double distPrev1 = positions.distance(LarvaTrajectory.HEAD_X, prev,
+				LarvaTrajectory.CENTER_X, pointOfComparison);
+		double distPrev2 = positions.distance(LarvaTrajectory.TAIL_X, prev,
+				LarvaTrajectory.CENTER_X, pointOfComparison);
+		double distCurr1 = positions.distance(LarvaTrajectory.HEAD_X, curr,
+				LarvaTrajectory.CENTER_X, pointOfComparison);
+		double distCurr2 = positions.distance(LarvaTrajectory.TAIL_X, curr,
+				LarvaTrajectory.CENTER_X, pointOfComparison);
+
+		int evidence = 0;
+		if (distPrev1 - distCurr1 >= 0) {
+			evidence--;
 		}
-		return false;
+		if (distPrev2 - distCurr2 >= 0) {
+			evidence++;
+		}
+		return evidence;
 	}
 
 	@Override
@@ -538,6 +1283,11 @@ public class LarvaHeadNodeModel extends NodeModel{
 		m_larvaTimeColumnSelection.saveSettingsTo(settings);
 		m_sortAccordingToTimeSelection.saveSettingsTo(settings);
 		m_mergeEqualTimeSelection.saveSettingsTo(settings);
+		m_mergeMethodSelection.saveSettingsTo(settings);
+		m_streamOrderedInputSelection.saveSettingsTo(settings);
+		m_headDetectionSelection.saveSettingsTo(settings);
+		m_endAssignmentSelection.saveSettingsTo(settings);
+		m_incrementalSelection.saveSettingsTo(settings);
 	}
 
 	@Override
@@ -554,11 +1304,27 @@ public class LarvaHeadNodeModel extends NodeModel{
 		m_larvaTimeColumnSelection.validateSettings(settings);
 		m_sortAccordingToTimeSelection.validateSettings(settings);
 		m_mergeEqualTimeSelection.validateSettings(settings);
+		if (settings.containsKey(CFG_MERGE_METHOD)) {
+			m_mergeMethodSelection.validateSettings(settings);
+		}
+		if (settings.containsKey(CFG_STREAM_ORDERED_INPUT)) {
+			m_streamOrderedInputSelection.validateSettings(settings);
+		}
+		if (settings.containsKey(CFG_HEAD_DETECTION)) {
+			m_headDetectionSelection.validateSettings(settings);
+		}
+		if (settings.containsKey(CFG_END_ASSIGNMENT)) {
+			m_endAssignmentSelection.validateSettings(settings);
+		}
+		if (settings.containsKey(CFG_INCREMENTAL)) {
+			m_incrementalSelection.validateSettings(settings);
+		}
 	}
 
 	@Override
 	protected void loadValidatedSettingsFrom(NodeSettingsRO settings)
 			throws InvalidSettingsException {
+		String prevSettingsKey = getSettingsKey();
 		m_larvaEndOneXColumnSelection.loadSettingsFrom(settings);
 		m_larvaEndOneYColumnSelection.loadSettingsFrom(settings);
 		m_larvaEndTwoXColumnSelection.loadSettingsFrom(settings);
@@ -570,23 +1336,110 @@ public class LarvaHeadNodeModel extends NodeModel{
 		m_larvaTimeColumnSelection.loadSettingsFrom(settings);
 		m_sortAccordingToTimeSelection.loadSettingsFrom(settings);
 		m_mergeEqualTimeSelection.loadSettingsFrom(settings);
+		// settings of older versions do not have the following options
+		if (settings.containsKey(CFG_MERGE_METHOD)) {
+			m_mergeMethodSelection.loadSettingsFrom(settings);
+		} else {
+			m_mergeMethodSelection.setStringValue(TimeOrderedRowIterator.MERGE_MEAN);
+		}
+		if (settings.containsKey(CFG_STREAM_ORDERED_INPUT)) {
+			m_streamOrderedInputSelection.loadSettingsFrom(settings);
+		} else {
+			m_streamOrderedInputSelection.setBooleanValue(false);
+		}
+		if (settings.containsKey(CFG_HEAD_DETECTION)) {
+			m_headDetectionSelection.loadSettingsFrom(settings);
+		} else {
+			m_headDetectionSelection.setStringValue(HEAD_DETECTION_FIRST_ROWS);
+		}
+		if (settings.containsKey(CFG_END_ASSIGNMENT)) {
+			m_endAssignmentSelection.loadSettingsFrom(settings);
+		} else {
+			m_endAssignmentSelection.setStringValue(END_ASSIGNMENT_GREEDY);
+		}
+		if (settings.containsKey(CFG_INCREMENTAL)) {
+			m_incrementalSelection.loadSettingsFrom(settings);
+		} else {
+			m_incrementalSelection.setBooleanValue(false);
+		}
+
+		// the state of the incremental processing belongs to the previous
+		// settings
+		if (!getSettingsKey().equals(prevSettingsKey)) {
+			clearState();
+		}
 	}
 
 	@Override
 	protected void reset() {
-		// Nothing to do here, yet
+		// the state of the incremental processing and its outgoing table are
+		// kept, so the next execution can continue them
+	}
+
+	@Override
+	protected void onDispose() {
+		clearState();
 	}
 
 	@Override
 	protected void loadInternals(File nodeInternDir, ExecutionMonitor exec)
 			throws IOException, CanceledExecutionException {
-
+		clearState();
+		m_stateKey = null;
+		File file = new File(nodeInternDir, INTERNALS_FILE);
+		File outputFile = new File(nodeInternDir, OUTPUT_FILE);
+		if (!file.exists() || !outputFile.exists()) {
+			return;
+		}
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(file)));
+		try {
+			String stateKey = in.readUTF();
+			double[] positions = new double[in.readInt()];
+			for (int i = 0; i < positions.length; i++) {
+				positions[i] = in.readDouble();
+			}
+			m_lastIsHeadEqualToEndOne = in.readBoolean();
+			m_numProcessedRows = in.readInt();
+			m_lastRowKey = in.readUTF();
+			m_lastValues = new double[in.readInt()];
+			for (int i = 0; i < m_lastValues.length; i++) {
+				m_lastValues[i] = in.readDouble();
+			}
+			m_lastPositions = positions;
+			m_stateKey = stateKey;
+		} finally {
+			in.close();
+		}
+		m_prevOutput = DataContainer.readFromZip(outputFile);
 	}
 
 	@Override
 	protected void saveInternals(File nodeInternDir, ExecutionMonitor exec)
 			throws IOException, CanceledExecutionException {
-
+		if (m_lastPositions == null) {
+			return;
+		}
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(new File(nodeInternDir, INTERNALS_FILE))));
+		try {
+			out.writeUTF(m_stateKey);
+			out.writeInt(m_lastPositions.length);
+			for (int i = 0; i < m_lastPositions.length; i++) {
+				out.writeDouble(m_lastPositions[i]);
+			}
+			out.writeBoolean(m_lastIsHeadEqualToEndOne);
+			out.writeInt(m_numProcessedRows);
+			out.writeUTF(m_lastRowKey);
+			out.writeInt(m_lastValues.length);
+			for (int i = 0; i < m_lastValues.length; i++) {
+				out.writeDouble(m_lastValues[i]);
+			}
+		} finally {
+			out.close();
+		}
+		DataContainer.writeToZip(m_prevOutput, new File(nodeInternDir,
+				OUTPUT_FILE), exec);
 	}
 
 	/**
@@ -647,4 +1500,37 @@ public class LarvaHeadNodeModel extends NodeModel{
 	protected static SettingsModelBoolean createMergeEqualTimeSelectionModel() {
 		return new SettingsModelBoolean("merge_equal_time_selection", true);
 	}
+
+	private static final String CFG_MERGE_METHOD = "merge_method";
+
+	protected static SettingsModelString createMergeMethodModel() {
+		return new SettingsModelString(CFG_MERGE_METHOD,
+				TimeOrderedRowIterator.MERGE_MEAN);
+	}
+
+	private static final String CFG_STREAM_ORDERED_INPUT = "stream_ordered_input_selection";
+
+	protected static SettingsModelBoolean createStreamOrderedInputSelectionModel() {
+		return new SettingsModelBoolean(CFG_STREAM_ORDERED_INPUT, false);
+	}
+
+	private static final String CFG_HEAD_DETECTION = "head_detection";
+
+	protected static SettingsModelString createHeadDetectionModel() {
+		return new SettingsModelString(CFG_HEAD_DETECTION,
+				HEAD_DETECTION_FIRST_ROWS);
+	}
+
+	private static final String CFG_END_ASSIGNMENT = "end_assignment";
+
+	protected static SettingsModelString createEndAssignmentModel() {
+		return new SettingsModelString(CFG_END_ASSIGNMENT,
+				END_ASSIGNMENT_GREEDY);
+	}
+
+	private static final String CFG_INCREMENTAL = "incremental_selection";
+
+	protected static SettingsModelBoolean createIncrementalSelectionModel() {
+		return new SettingsModelBoolean(CFG_INCREMENTAL, false);
+	}
 }
\ No newline at end of file
@@ -0,0 +1,227 @@
+package org.knime.knip.larva.node.larvahead;
+
+import java.util.Arrays;
+
+import org.knime.core.data.DataCell;
+import org.knime.core.data.DataRow;
+import org.knime.core.data.DataTableSpec;
+import org.knime.core.data.DoubleValue;
+import org.knime.core.data.RowIterator;
+import org.knime.core.data.def.DefaultRow;
+import org.knime.core.data.def.DoubleCell;
+import org.knime.core.node.InvalidSettingsException;
+
+/**
+ * Iterates over the rows of a table which is ordered by time. Consecutive rows
+ * with equal time can be merged into one row while iterating, the double
+ * columns of a group of rows are combined by a merge method and the other
+ * columns are taken from the first row of the group. The values of a group are
+ * collected in primitive arrays, so only one new row is created per group and
+ * rows with a unique time are returned as they are.
+ *
+ * @author wildnerm, University of Konstanz
+ */
+final class TimeOrderedRowIterator {
+
+	/** the mean of the values of a group */
+	static final String MERGE_MEAN = "mean";
+
+	/** the median of the values of a group */
+	static final String MERGE_MEDIAN = "median";
+
+	/** the first row of a group */
+	static final String MERGE_FIRST = "first";
+
+	/** the last row of a group */
+	static final String MERGE_LAST = "last";
+
+	static final String[] MERGE_METHODS = new String[] { MERGE_MEAN,
+			MERGE_MEDIAN, MERGE_FIRST, MERGE_LAST };
+
+	private final RowIterator m_iterator;
+
+	private final int m_timePos;
+
+	private final boolean m_checkOrder;
+
+	/* merge method, null if rows are not merged */
+	private final String m_mergeMethod;
+
+	/* true if the values of a group are needed, i.e. for mean and median */
+	private final boolean m_collectValues;
+
+	/* positions of the double columns */
+	private final int[] m_mergedCols;
+
+	/* values of the double columns of the current group, column by column,
+	 * and the number of (not missing) values of each column */
+	private double[][] m_values;
+
+	private final int[] m_numValues;
+
+	/* first row which was not returned yet and its time, null at the end */
+	private DataRow m_nextRow;
+
+	private double m_nextTime;
+
+	/**
+	 * @param iterator
+	 *            the rows of the table
+	 * @param spec
+	 *            spec of the table
+	 * @param timePos
+	 *            position of the time column
+	 * @param mergeMethod
+	 *            one of {@link #MERGE_METHODS}, null if rows with equal time
+	 *            should not be merged
+	 * @param checkOrder
+	 *            if true, the time values have to be ascending
+	 * @throws InvalidSettingsException
+	 *             if the merge method is unknown
+	 */
+	TimeOrderedRowIterator(RowIterator iterator, DataTableSpec spec,
+			int timePos, String mergeMethod, boolean checkOrder)
+			throws InvalidSettingsException {
+		if (mergeMethod != null
+				&& !Arrays.asList(MERGE_METHODS).contains(mergeMethod)) {
+			throw new InvalidSettingsException("Unknown merge method: "
+					+ mergeMethod);
+		}
+		m_iterator = iterator;
+		m_timePos = timePos;
+		m_checkOrder = checkOrder;
+		m_mergeMethod = mergeMethod;
+		m_collectValues = MERGE_MEAN.equals(mergeMethod)
+				|| MERGE_MEDIAN.equals(mergeMethod);
+
+		int numMergedCols = 0;
+		int[] mergedCols = new int[spec.getNumColumns()];
+		for (int i = 0; i < spec.getNumColumns(); i++) {
+			if (spec.getColumnSpec(i).getType() == DoubleCell.TYPE) {
+				mergedCols[numMergedCols++] = i;
+			}
+		}
+		m_mergedCols = Arrays.copyOf(mergedCols, numMergedCols);
+		m_values = new double[numMergedCols][2];
+		m_numValues = new int[numMergedCols];
+
+		if (iterator.hasNext()) {
+			m_nextRow = iterator.next();
+			m_nextTime = getTime(m_nextRow);
+		}
+	}
+
+	/**
+	 * @return the next (merged) row, null at the end of the table
+	 * @throws InvalidSettingsException
+	 *             if the order is checked and the time values are not
+	 *             ascending
+	 */
+	DataRow next() throws InvalidSettingsException {
+		if (m_nextRow == null) {
+			return null;
+		}
+		DataRow firstRow = m_nextRow;
+		DataRow lastRow = firstRow;
+		double time = m_nextTime;
+		int groupSize = 1;
+		readNext(time);
+		while (m_mergeMethod != null && m_nextRow != null
+				&& m_nextTime == time) {
+			if (m_collectValues) {
+				if (groupSize == 1) {
+					Arrays.fill(m_numValues, 0);
+					collectValues(firstRow);
+				}
+				collectValues(m_nextRow);
+			}
+			lastRow = m_nextRow;
+			groupSize++;
+			readNext(time);
+		}
+
+		if (groupSize == 1 || MERGE_FIRST.equals(m_mergeMethod)) {
+			return firstRow;
+		} else if (MERGE_LAST.equals(m_mergeMethod)) {
+			return lastRow;
+		}
+		return createMergedRow(firstRow);
+	}
+
+	/**
+	 * Reads the row after the current row.
+	 *
+	 * @param time
+	 *            time of the current row
+	 */
+	private void readNext(double time) throws InvalidSettingsException {
+		if (!m_iterator.hasNext()) {
+			m_nextRow = null;
+			return;
+		}
+		m_nextRow = m_iterator.next();
+		m_nextTime = getTime(m_nextRow);
+		if (m_checkOrder && m_nextTime < time) {
+			throw new InvalidSettingsException("Row " + m_nextRow.getKey()
+					+ " is not ordered by time! Disable single pass processing of ordered tables.");
+		}
+	}
+
+	private double getTime(DataRow row) {
+		return ((DoubleValue) row.getCell(m_timePos)).getDoubleValue();
+	}
+
+	/**
+	 * Appends the double values of a row of the current group.
+	 */
+	private void collectValues(DataRow row) {
+		for (int c = 0; c < m_mergedCols.length; c++) {
+			DataCell cell = row.getCell(m_mergedCols[c]);
+			if (cell.isMissing()) {
+				continue;
+			}
+			if (m_numValues[c] == m_values[c].length) {
+				m_values[c] = Arrays.copyOf(m_values[c], 2 * m_values[c].length);
+			}
+			m_values[c][m_numValues[c]++] = ((DoubleValue) cell)
+					.getDoubleValue();
+		}
+	}
+
+	/**
+	 * Creates the row of the current group, the double columns hold the mean
+	 * or the median of the group.
+	 *
+	 * @param firstRow
+	 *            first row of the group
+	 * @return the merged row with the key of the first row
+	 */
+	private DataRow createMergedRow(DataRow firstRow) {
+		DataCell[] cells = new DataCell[firstRow.getNumCells()];
+		for (int i = 0; i < cells.length; i++) {
+			cells[i] = firstRow.getCell(i);
+		}
+		for (int c = 0; c < m_mergedCols.length; c++) {
+			int n = m_numValues[c];
+			if (n == 0) {
+				// only missing values
+				continue;
+			}
+			double[] values = m_values[c];
+			double value;
+			if (MERGE_MEDIAN.equals(m_mergeMethod)) {
+				Arrays.sort(values, 0, n);
+				value = n % 2 == 1 ? values[n / 2]
+						: (values[n / 2 - 1] + values[n / 2]) / 2;
+			} else {
+				double sum = 0;
+				for (int i = 0; i < n; i++) {
+					sum += values[i];
+				}
+				value = sum / n;
+			}
+			cells[m_mergedCols[c]] = new DoubleCell(value);
+		}
+		return new DefaultRow(firstRow.getKey(), cells);
+	}
+}
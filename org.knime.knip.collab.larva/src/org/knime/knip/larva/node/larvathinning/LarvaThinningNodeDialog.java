@@ -2,6 +2,8 @@ package org.knime.knip.larva.node.larvathinning;
 
 import net.imglib2.type.logic.BitType;
 
+import org.knime.core.node.defaultnodesettings.DialogComponentBoolean;
+import org.knime.core.node.defaultnodesettings.DialogComponentStringSelection;
 import org.knime.knip.base.data.img.ImgPlusValue;
 import org.knime.knip.base.node.ValueToCellNodeDialog;
 import org.knime.knip.base.node.dialog.DialogComponentDimSelection;
@@ -21,6 +23,22 @@ public class LarvaThinningNodeDialog<BITTYPE> extends
 			LarvaThinningNodeModel.createDimSelectionModel(),
 		"Dimension selection"));
 
+	addDialogComponent(new DialogComponentStringSelection(
+		LarvaThinningNodeModel.createThinningMethodModel(),
+		"Thinning method", LarvaThinningNodeModel.THINNING_METHODS));
+
+	addDialogComponent(new DialogComponentBoolean(
+		LarvaThinningNodeModel.createFrontierModel(),
+		"only revisit pixels next to deleted pixels (Lee)"));
+
+	addDialogComponent(new DialogComponentBoolean(
+		LarvaThinningNodeModel.createCropModel(),
+		"only thin the bounding box of the foreground"));
+
+	addDialogComponent(new DialogComponentBoolean(
+		LarvaThinningNodeModel.createParallelModel(),
+		"thin large planes in parallel tiles (Lee)"));
+
     }
 
 }
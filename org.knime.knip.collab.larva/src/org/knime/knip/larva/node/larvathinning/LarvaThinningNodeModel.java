@@ -54,16 +54,20 @@ import java.util.List;
 
 import net.imglib2.img.Img;
 import net.imglib2.ops.operation.SubsetOperations;
+import net.imglib2.ops.operation.UnaryOperation;
 import net.imglib2.type.logic.BitType;
 
 import org.knime.core.node.ExecutionContext;
 import org.knime.core.node.defaultnodesettings.SettingsModel;
+import org.knime.core.node.defaultnodesettings.SettingsModelBoolean;
+import org.knime.core.node.defaultnodesettings.SettingsModelString;
 import org.knime.knip.base.data.img.ImgPlusCell;
 import org.knime.knip.base.data.img.ImgPlusCellFactory;
 import org.knime.knip.base.data.img.ImgPlusValue;
 import org.knime.knip.base.node.ValueToCellNodeModel;
 import org.knime.knip.base.node.nodesettings.SettingsModelDimSelection;
 import org.knime.knip.core.util.ImgUtils;
+import org.knime.knip.larva.ops.ThinningGuoHall;
 import org.knime.knip.larva.ops.ThinningLee;
 
 /**
@@ -77,8 +81,32 @@ import org.knime.knip.larva.ops.ThinningLee;
 public class LarvaThinningNodeModel extends
 		ValueToCellNodeModel<ImgPlusValue<BitType>, ImgPlusCell<BitType>> {
 
+	/**
+	 * Thinning of Lee et al. (3D algorithm applied on one slice).
+	 */
+	static final String THINNING_LEE = "Lee";
+
+	/**
+	 * Thinning of Guo and Hall (2D algorithm).
+	 */
+	static final String THINNING_GUO_HALL = "Guo-Hall";
+
+	/**
+	 * Available thinning methods.
+	 */
+	static final String[] THINNING_METHODS = new String[] { THINNING_LEE,
+			THINNING_GUO_HALL };
+
 	private SettingsModelDimSelection m_dimSelection = createDimSelectionModel();
 
+	private SettingsModelString m_thinningMethod = createThinningMethodModel();
+
+	private SettingsModelBoolean m_frontier = createFrontierModel();
+
+	private SettingsModelBoolean m_crop = createCropModel();
+
+	private SettingsModelBoolean m_parallel = createParallelModel();
+
 	private ImgPlusCellFactory m_imgCellFactory;
 
 	/**
@@ -92,10 +120,30 @@ public class LarvaThinningNodeModel extends
 		return new SettingsModelDimSelection("dimselection", "X", "Y");
 	}
 
+	protected static SettingsModelString createThinningMethodModel() {
+		return new SettingsModelString("thinning_method", THINNING_LEE);
+	}
+
+	protected static SettingsModelBoolean createFrontierModel() {
+		return new SettingsModelBoolean("thinning_frontier", false);
+	}
+
+	protected static SettingsModelBoolean createCropModel() {
+		return new SettingsModelBoolean("crop_to_foreground", false);
+	}
+
+	protected static SettingsModelBoolean createParallelModel() {
+		return new SettingsModelBoolean("parallel_tiles", false);
+	}
+
 	@Override
 	protected void addSettingsModels(List<SettingsModel> settingsModels) {
 
 		settingsModels.add(m_dimSelection);
+		settingsModels.add(m_thinningMethod);
+		settingsModels.add(m_frontier);
+		settingsModels.add(m_crop);
+		settingsModels.add(m_parallel);
 	}
 
 	/**
@@ -108,8 +156,21 @@ public class LarvaThinningNodeModel extends
 	protected ImgPlusCell<BitType> compute(ImgPlusValue<BitType> cellValue)
 			throws Exception {
 
-		Img<BitType> res = SubsetOperations.iterate(
-				new ThinningLee<Img<BitType>>(),
+		UnaryOperation<Img<BitType>, Img<BitType>> thinning;
+		// the output is created empty, so cropped thinning only has to paste
+		// the bounding box of the skeleton
+		if (THINNING_GUO_HALL.equals(m_thinningMethod.getStringValue())) {
+			thinning = new ThinningGuoHall<Img<BitType>>(
+					m_crop.getBooleanValue());
+		} else {
+			// large planes are split into tiles which share the executor
+			// with the planes
+			thinning = new ThinningLee<Img<BitType>>(
+					m_frontier.getBooleanValue(), m_crop.getBooleanValue(),
+					m_parallel.getBooleanValue() ? getExecutorService() : null);
+		}
+
+		Img<BitType> res = SubsetOperations.iterate(thinning,
 				m_dimSelection.getSelectedDimIndices(cellValue.getImgPlus()),
 				cellValue.getImgPlus(),
 				ImgUtils.createEmptyCopy(cellValue.getImgPlus()),
@@ -18,14 +18,13 @@ import org.knime.core.data.DataColumnSpec;
 import org.knime.core.data.DataRow;
 import org.knime.core.data.DataTable;
 import org.knime.core.data.DataTableSpec;
-import org.knime.core.data.DoubleValue;
-import org.knime.core.data.RowIterator;
+import org.knime.core.data.RowKey;
+import org.knime.core.data.container.DataContainer;
 import org.knime.core.data.def.DefaultRow;
 import org.knime.core.data.def.IntCell;
-import org.knime.core.node.BufferedDataContainer;
 import org.knime.core.node.BufferedDataTable;
-import org.knime.core.node.ExecutionContext;
 import org.knime.knip.core.ui.event.EventService;
+import org.knime.knip.larva.LarvaTrajectory;
 
 /**
  * JPanel holdig several JPanels like larva info box, larva configuration panel,
@@ -42,8 +41,8 @@ public class LarvaInfoPanel extends JPanel {
 	private JPanel m_definitionPanel;
 	private JPanel m_infoBox;
 	private BufferedDataTable m_featuresTable;
-	private int[] m_colPos;
-	private ExecutionContext m_exec;
+	private LarvaTrajectory m_trajectory;
+	private RowKey[] m_rowKeys;
 	private EventService m_eventservice;
 
 	private JButton m_showHideSecondLinePlot;
@@ -238,17 +237,20 @@ public class LarvaInfoPanel extends JPanel {
 	}
 
 	/**
-	 * Sets the incoming table and its description.
+	 * Sets the incoming table and the values of its rows.
 	 * 
 	 * @param featuresTable the data table
-	 * @param colPos description of the table, positions of interesting columns
-	 * @param executionContext the execution context of the node model
+	 * @param trajectory the values needed for runs and headcasts of each row,
+	 *            see {@link LarvaViewerNodeModel#getTrajectory()}
+	 * @param rowKeys the keys of the rows
 	 */
-	public void setFeaturesTable(BufferedDataTable featuresTable, int[] colPos,
-			ExecutionContext executionContext) {
+	public void setFeaturesTable(BufferedDataTable featuresTable,
+			LarvaTrajectory trajectory, RowKey[] rowKeys) {
 		m_featuresTable = featuresTable;
-		m_colPos = colPos;
-		m_exec = executionContext;
+		// the values are kept by the node model, changes of the definitions
+		// only use the trajectory
+		m_trajectory = trajectory;
+		m_rowKeys = rowKeys;
 		setBarPlotsTables();
 	}
 
@@ -268,20 +270,22 @@ public class LarvaInfoPanel extends JPanel {
 		int ctr = 0;
 
 		DataTableSpec outSpec = createOutSpec(inSpec);
-		BufferedDataContainer container = m_exec.createDataContainer(outSpec,
-				true);
+		DataContainer container = new DataContainer(outSpec, true);
+
+		double[] time = m_trajectory
+				.column(LarvaViewerNodeModel.TRAJECTORY_TIME);
+		double[] headAngles = m_trajectory
+				.column(LarvaViewerNodeModel.TRAJECTORY_HEAD_ANGLE);
+		double[] speed = m_trajectory
+				.column(LarvaViewerNodeModel.TRAJECTORY_SPEED);
 
 		double prevTime = 0;
 		int prevHeadDirection = 0;
 		int headCastNumber = 0;
-		RowIterator larvaFeaturesIterator = m_featuresTable.iterator();
-
-		while (larvaFeaturesIterator.hasNext()) {
-			DataRow currRow = larvaFeaturesIterator.next();
 
+		for (int row = 0; row < m_trajectory.size(); row++) {
 			DataCell[] cells = new DataCell[numColumnsOut];
-			double currTime = ((DoubleValue) currRow.getCell(m_colPos[0]))
-					.getDoubleValue();
+			double currTime = time[row];
 			if (ctr == 0) {
 				prevTime = currTime;
 			} else if (currTime == prevTime) {
@@ -291,7 +295,7 @@ public class LarvaInfoPanel extends JPanel {
 			double runMinimumSpeed = m_spinnerModelRunSpeed.getNumber()
 					.doubleValue();
 			int isRunning = 0;
-			if (((DoubleValue) currRow.getCell(m_colPos[5])).getDoubleValue() > runMinimumSpeed) {
+			if (speed[row] > runMinimumSpeed) {
 				isRunning = 1;
 			}
 			cells[0] = new IntCell(isRunning);
@@ -303,8 +307,7 @@ public class LarvaInfoPanel extends JPanel {
 				headCastAngleEndDifference = 1;
 			}
 			int currHeadDirection = 0;
-			double headAngle = ((DoubleValue) currRow.getCell(m_colPos[1]))
-					.getDoubleValue();
+			double headAngle = headAngles[row];
 			if (headAngle < -headCastAngleStart) {
 				currHeadDirection = -2;
 			} else if (headAngle > headCastAngleStart) {
@@ -343,7 +346,7 @@ public class LarvaInfoPanel extends JPanel {
 			// }
 			cells[2] = new IntCell(headCastNumber);
 
-			DataRow outRow = new DefaultRow(currRow.getKey(), cells);
+			DataRow outRow = new DefaultRow(m_rowKeys[row], cells);
 			container.addRowToTable(outRow);
 
 			prevTime = currTime;
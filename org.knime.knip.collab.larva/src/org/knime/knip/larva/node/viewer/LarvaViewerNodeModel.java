@@ -68,6 +68,7 @@ import org.knime.core.data.DataTableSpec;
 import org.knime.core.data.DataType;
 import org.knime.core.data.DoubleValue;
 import org.knime.core.data.RowIterator;
+import org.knime.core.data.RowKey;
 import org.knime.core.data.def.DefaultRow;
 import org.knime.core.data.def.DoubleCell;
 import org.knime.core.data.def.IntCell;
@@ -94,6 +95,7 @@ import org.knime.knip.base.data.labeling.LabelingCell;
 import org.knime.knip.base.data.labeling.LabelingValue;
 import org.knime.knip.base.node.NodeUtils;
 import org.knime.knip.core.util.StringTransformer;
+import org.knime.knip.larva.LarvaTrajectory;
 
 /**
  * Node model for the node Larva Viewer. It extends the model for the Segment
@@ -177,7 +179,23 @@ public class LarvaViewerNodeModel<T extends RealType<T>, L extends Comparable<L>
 	 */
 	private int[] m_colPos;
 
-	private ExecutionContext m_exec;
+	/*
+	 * columns of the trajectory of the outgoing rows: time, theta (head angle)
+	 * and speed
+	 */
+	static final int TRAJECTORY_TIME = 0;
+
+	static final int TRAJECTORY_HEAD_ANGLE = 1;
+
+	static final int TRAJECTORY_SPEED = 2;
+
+	/*
+	 * values needed for runs and headcasts and the key of each row of the
+	 * outgoing features table, read again from the table when it is restored
+	 */
+	private LarvaTrajectory m_trajectory;
+
+	private RowKey[] m_rowKeys;
 
 	private int[] m_includedColumns;
 	private int[] m_includedColumnsPlot1 = new int[] { 1, 2, 6 };
@@ -259,8 +277,6 @@ public class LarvaViewerNodeModel<T extends RealType<T>, L extends Comparable<L>
 	protected BufferedDataTable[] execute(final BufferedDataTable[] inData,
 			final ExecutionContext exec) throws Exception {
 
-		m_exec = exec;
-
 		assert (inData != null);
 		assert (inData.length >= 1);
 
@@ -341,15 +357,7 @@ public class LarvaViewerNodeModel<T extends RealType<T>, L extends Comparable<L>
 		// stores meta data about the table
 		DataTableSpec inSpecTwo = inData[PORT_FEATURES].getDataTableSpec();
 
-		/*
-		 * stores the positions of needed columns. order of column positions:
-		 * Time, theta (head angle)
-		 */
-		m_colPos = new int[] {
-				inSpecTwo.findColumnIndex(m_larvaTimeColumnSelection
-						.getStringValue()),
-				inSpecTwo.findColumnIndex(m_larvaHeadAngleColumnSelection
-						.getStringValue()), 2, 3, 5, 6 };
+		m_colPos = createColPos(inSpecTwo);
 
 		// number of incoming columns
 		int numColumnsIn = inSpecTwo.getNumColumns();
@@ -362,6 +370,12 @@ public class LarvaViewerNodeModel<T extends RealType<T>, L extends Comparable<L>
 		BufferedDataContainer container = exec.createDataContainer(outSpecTwo,
 				true);
 
+		// the values needed for runs and headcasts and the keys of the
+		// written rows
+		LarvaTrajectory outTrajectory = new LarvaTrajectory(3, numRows);
+		double[] outValues = new double[3];
+		RowKey[] rowKeys = new RowKey[numRows];
+
 		double prevTime = 0;
 		int prevHeadDirection = 0;
 		int headCastNumber = 0;
@@ -370,11 +384,6 @@ public class LarvaViewerNodeModel<T extends RealType<T>, L extends Comparable<L>
 		while (larvaFeaturesIterator.hasNext()) {
 			DataRow currRow = larvaFeaturesIterator.next();
 
-			DataCell[] cells = new DataCell[numColumnsOut];
-			for (int i = 0; i < numColumnsIn; i++) {
-				cells[i] = currRow.getCell(i); // default: transfer other
-												// columns
-			}
 			double currTime = ((DoubleValue) currRow.getCell(m_colPos[0]))
 					.getDoubleValue();
 			if (ctr == 0) {
@@ -383,9 +392,17 @@ public class LarvaViewerNodeModel<T extends RealType<T>, L extends Comparable<L>
 				continue;
 			}
 
+			DataCell[] cells = new DataCell[numColumnsOut];
+			for (int i = 0; i < numColumnsIn; i++) {
+				cells[i] = currRow.getCell(i); // default: transfer other
+												// columns
+			}
+
+			double speed = ((DoubleValue) currRow.getCell(m_colPos[5]))
+					.getDoubleValue();
 			double runMinimumSpeed = m_minRunSpeedSelection.getDoubleValue();
 			int isRunning = 0;
-			if (((DoubleValue) currRow.getCell(m_colPos[5])).getDoubleValue() > runMinimumSpeed) {
+			if (speed > runMinimumSpeed) {
 				isRunning = 1;
 			}
 			cells[numColumnsIn + 0] = new IntCell(isRunning);
@@ -434,6 +451,11 @@ public class LarvaViewerNodeModel<T extends RealType<T>, L extends Comparable<L>
 
 			DataRow outRow = new DefaultRow(currRow.getKey(), cells);
 			container.addRowToTable(outRow);
+			rowKeys[outTrajectory.size()] = outRow.getKey();
+			outValues[TRAJECTORY_TIME] = currTime;
+			outValues[TRAJECTORY_HEAD_ANGLE] = headAngle;
+			outValues[TRAJECTORY_SPEED] = speed;
+			outTrajectory.add(outValues);
 
 			prevTime = currTime;
 			prevHeadDirection = currHeadDirection;
@@ -443,10 +465,45 @@ public class LarvaViewerNodeModel<T extends RealType<T>, L extends Comparable<L>
 		container.close();
 
 		m_larvaFeaturesTable = container.getTable();
+		m_trajectory = outTrajectory;
+		m_rowKeys = Arrays.copyOf(rowKeys, outTrajectory.size());
 
 		return new BufferedDataTable[] { container.getTable() };
 	}
 
+	/**
+	 * Stores the positions of needed columns. order of column positions: Time,
+	 * theta (head angle)
+	 * 
+	 * @param inSpec
+	 *            spec of the features table
+	 * @return the column positions
+	 */
+	private int[] createColPos(DataTableSpec inSpec) {
+		return new int[] {
+				inSpec.findColumnIndex(m_larvaTimeColumnSelection
+						.getStringValue()),
+				inSpec.findColumnIndex(m_larvaHeadAngleColumnSelection
+						.getStringValue()), 2, 3, 5, 6 };
+	}
+
+	/**
+	 * Reads the values which are needed for detecting runs and headcasts.
+	 * 
+	 * @param featuresTable
+	 *            table of larva features
+	 * @param colPos
+	 *            positions of interesting columns, see {@link #getColIndxSet()}
+	 * @return trajectory with the columns {@link #TRAJECTORY_TIME},
+	 *         {@link #TRAJECTORY_HEAD_ANGLE} and {@link #TRAJECTORY_SPEED}
+	 */
+	static LarvaTrajectory readTrajectory(BufferedDataTable featuresTable,
+			int[] colPos) {
+		return LarvaTrajectory.load(featuresTable,
+				featuresTable.getRowCount(), new int[] { colPos[0],
+						colPos[1], colPos[5] });
+	}
+
 	/**
 	 * Creates a new data table spec because new columns should be added
 	 * 
@@ -546,6 +603,8 @@ public class LarvaViewerNodeModel<T extends RealType<T>, L extends Comparable<L>
 	protected void reset() {
 		m_imgTable = null;
 		m_larvaFeaturesTable = null;
+		m_trajectory = null;
+		m_rowKeys = null;
 		m_includedColumns = null;
 		m_contentModel.clearCacheBeforeClosing();
 		m_contentModel = new ClearableTableContentModel();
@@ -593,6 +652,15 @@ public class LarvaViewerNodeModel<T extends RealType<T>, L extends Comparable<L>
 
 		if (tables.length > 1) {
 			m_larvaFeaturesTable = tables[1];
+			// the values needed for runs and headcasts are not saved, they
+			// are read again from the restored table
+			m_colPos = createColPos(tables[1].getDataTableSpec());
+			m_trajectory = readTrajectory(tables[1], m_colPos);
+			m_rowKeys = new RowKey[m_trajectory.size()];
+			RowIterator iter = tables[1].iterator();
+			for (int i = 0; i < m_rowKeys.length; i++) {
+				m_rowKeys[i] = iter.next().getKey();
+			}
 			// providing data for lineplotter
 			// setIncludedColumns();
 			// m_includedColumns = new int[] { 1, 2, 3, 4, 5 };
@@ -690,12 +758,23 @@ public class LarvaViewerNodeModel<T extends RealType<T>, L extends Comparable<L>
 	}
 
 	/**
-	 * Gets the execution context of this model.
+	 * Gets the values needed for runs and headcasts of each row of the
+	 * features table.
+	 * 
+	 * @return trajectory with the columns {@link #TRAJECTORY_TIME},
+	 *         {@link #TRAJECTORY_HEAD_ANGLE} and {@link #TRAJECTORY_SPEED}
+	 */
+	public LarvaTrajectory getTrajectory() {
+		return m_trajectory;
+	}
+
+	/**
+	 * Gets the keys of the rows of the features table.
 	 * 
-	 * @return execution context of this model
+	 * @return the row keys
 	 */
-	public ExecutionContext getExec() {
-		return m_exec;
+	public RowKey[] getRowKeys() {
+		return m_rowKeys;
 	}
 
 	/**
@@ -405,8 +405,8 @@ public class LarvaViewerNodeView<T extends RealType<T>, L extends Comparable<L>,
 		long numRows = dims[dims.length - 1];
 		m_tIntervalSelectionPanel.updatePaintModel(numRows);
 		m_larvaInfoPanel.setFeaturesTable(getNodeModel()
-				.getLarvaFeaturesTable(), getNodeModel().getColIndxSet(),
-				getNodeModel().getExec());
+				.getLarvaFeaturesTable(), getNodeModel().getTrajectory(),
+				getNodeModel().getRowKeys());
 		m_eventService.publish(new TIntervalSelectionEvent(1, numRows));
 
 		ColorLegendTab colorLegend = ((LinePlotterProperties) m_linePlot2
@@ -0,0 +1,73 @@
+package org.knime.knip.larva.ops;
+
+import net.imglib2.IterableInterval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.ops.operation.UnaryOperation;
+import net.imglib2.type.logic.BitType;
+
+/**
+ * Base class of the thinning operations. The binary input is copied into a
+ * {@link BinaryRaster}, thinned and written back to the output.
+ *
+ * @author wildnerm, University of Konstanz
+ */
+public abstract class AbstractThinning<TYPE extends RandomAccessibleInterval<BitType> & IterableInterval<BitType>>
+		implements UnaryOperation<TYPE, TYPE> {
+
+	/**
+	 * If true, only the bounding box of the foreground is thinned.
+	 */
+	private final boolean m_crop;
+
+	/**
+	 * @param crop
+	 *            if true, only the bounding box of the foreground (plus one
+	 *            pixel of padding) is copied, thinned and written to the
+	 *            output. Pixels of the output outside of the bounding box are
+	 *            not changed, so the output has to be empty.
+	 */
+	protected AbstractThinning(boolean crop) {
+		m_crop = crop;
+	}
+
+	/**
+	 * Applies the computation on the image.
+	 *
+	 * @param input
+	 *            the input values
+	 * @param output
+	 *            the output values
+	 */
+	@Override
+	public TYPE compute(TYPE input, TYPE output) {
+
+		// data preparation
+		BinaryRaster raster;
+		if (m_crop) {
+			raster = BinaryRaster.copyOfForeground(input);
+		} else {
+			raster = BinaryRaster.copyOf(input);
+		}
+
+		computeThinImage(raster);
+
+		raster.writeTo(output);
+
+		return output;
+	}
+
+	/**
+	 * Thins the raster in place.
+	 *
+	 * @param raster
+	 *            the image to thin
+	 */
+	protected abstract void computeThinImage(BinaryRaster raster);
+
+	/**
+	 * @return true if only the bounding box of the foreground is thinned
+	 */
+	protected boolean isCropping() {
+		return m_crop;
+	}
+}
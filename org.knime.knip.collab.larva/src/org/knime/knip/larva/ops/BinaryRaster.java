@@ -0,0 +1,307 @@
+package org.knime.knip.larva.ops;
+
+import net.imglib2.Cursor;
+import net.imglib2.IterableInterval;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.logic.BitType;
+
+/**
+ * Packed two-dimensional binary image used by the thinning operations. The
+ * pixels are stored row by row in a byte array which is surrounded by a
+ * border of background pixels, so the 8-neighborhood of every image pixel can
+ * be read with plain index arithmetic and without any bounds checks.
+ * 
+ * A raster either covers a whole image or only a rectangular region of it
+ * (see {@link #copyOfForeground(RandomAccessibleInterval)}).
+ *
+ * @author wildnerm, University of Konstanz
+ */
+public final class BinaryRaster {
+
+	/** bit of the north west neighbor in a neighborhood mask */
+	public static final int NW = 1;
+	/** bit of the north neighbor in a neighborhood mask */
+	public static final int N = 2;
+	/** bit of the north east neighbor in a neighborhood mask */
+	public static final int NE = 4;
+	/** bit of the west neighbor in a neighborhood mask */
+	public static final int W = 8;
+	/** bit of the east neighbor in a neighborhood mask */
+	public static final int E = 16;
+	/** bit of the south west neighbor in a neighborhood mask */
+	public static final int SW = 32;
+	/** bit of the south neighbor in a neighborhood mask */
+	public static final int S = 64;
+	/** bit of the south east neighbor in a neighborhood mask */
+	public static final int SE = 128;
+
+	/** width of the image (without border) */
+	private final int width;
+	/** height of the image (without border) */
+	private final int height;
+	/** length of one row in the data array (including border) */
+	private final int stride;
+	/** pixel values, 1 for foreground and 0 for background */
+	private final byte[] data;
+	/** x- position of the raster in the image it was copied from */
+	private final int offsetX;
+	/** y- position of the raster in the image it was copied from */
+	private final int offsetY;
+
+	/**
+	 * Creates an empty raster.
+	 *
+	 * @param width
+	 *            width of the image
+	 * @param height
+	 *            height of the image
+	 */
+	public BinaryRaster(int width, int height) {
+		this(width, height, 0, 0);
+	}
+
+	private BinaryRaster(int width, int height, int offsetX, int offsetY) {
+		this.width = width;
+		this.height = height;
+		this.stride = width + 2;
+		this.data = new byte[stride * (height + 2)];
+		this.offsetX = offsetX;
+		this.offsetY = offsetY;
+	}
+
+	/**
+	 * Copies the first two dimensions of a binary image into a new raster.
+	 *
+	 * @param image
+	 *            the image to copy
+	 * @return raster holding the foreground pixels of the image
+	 */
+	public static BinaryRaster copyOf(IterableInterval<BitType> image) {
+		BinaryRaster raster = new BinaryRaster((int) image.dimension(0),
+				(int) image.dimension(1));
+		long minX = image.min(0);
+		long minY = image.min(1);
+		Cursor<BitType> c = image.localizingCursor();
+		while (c.hasNext()) {
+			c.fwd();
+			if (c.get().get()) {
+				raster.data[raster.index(
+						(int) (c.getLongPosition(0) - minX),
+						(int) (c.getLongPosition(1) - minY))] = 1;
+			}
+		}
+		return raster;
+	}
+
+	/**
+	 * Copies the pixels of a region, e.g. the region of interest of a label,
+	 * into a new raster of the size of the region. All visited pixels are
+	 * foreground, their values are ignored.
+	 *
+	 * @param region
+	 *            the region to copy
+	 * @return raster holding the pixels of the region
+	 */
+	public static BinaryRaster copyOfRegion(IterableInterval<?> region) {
+		BinaryRaster raster = new BinaryRaster((int) region.dimension(0),
+				(int) region.dimension(1));
+		long minX = region.min(0);
+		long minY = region.min(1);
+		Cursor<?> c = region.localizingCursor();
+		while (c.hasNext()) {
+			c.fwd();
+			raster.data[raster.index((int) (c.getLongPosition(0) - minX),
+					(int) (c.getLongPosition(1) - minY))] = 1;
+		}
+		return raster;
+	}
+
+	/**
+	 * Copies the bounding box of the foreground of a binary image into a new
+	 * raster. Together with the background border of the raster this is the
+	 * bounding box with one pixel of padding. The image is iterated once to
+	 * find the bounding box, afterwards only the box is read.
+	 *
+	 * @param image
+	 *            the image to copy
+	 * @return raster holding the bounding box of the foreground, empty if
+	 *         there is no foreground
+	 */
+	public static <T extends RandomAccessibleInterval<BitType> & IterableInterval<BitType>> BinaryRaster copyOfForeground(
+			T image) {
+		long[] pos = new long[image.numDimensions()];
+		image.min(pos);
+		long minX = pos[0];
+		long minY = pos[1];
+
+		// bounding box of the foreground
+		int x0 = Integer.MAX_VALUE;
+		int y0 = Integer.MAX_VALUE;
+		int x1 = -1;
+		int y1 = -1;
+		Cursor<BitType> c = image.cursor();
+		while (c.hasNext()) {
+			c.fwd();
+			if (c.get().get()) {
+				int x = (int) (c.getLongPosition(0) - minX);
+				int y = (int) (c.getLongPosition(1) - minY);
+				x0 = Math.min(x0, x);
+				y0 = Math.min(y0, y);
+				x1 = Math.max(x1, x);
+				y1 = Math.max(y1, y);
+			}
+		}
+		if (x1 < 0) {
+			return new BinaryRaster(0, 0);
+		}
+
+		BinaryRaster raster = new BinaryRaster(x1 - x0 + 1, y1 - y0 + 1, x0,
+				y0);
+		RandomAccess<BitType> ra = image.randomAccess();
+		ra.setPosition(pos);
+		for (int y = 0; y < raster.height; y++) {
+			ra.setPosition(minX + x0, 0);
+			ra.setPosition(minY + y0 + y, 1);
+			int index = raster.index(0, y);
+			for (int x = 0; x < raster.width; x++, index++) {
+				if (ra.get().get()) {
+					raster.data[index] = 1;
+				}
+				ra.fwd(0);
+			}
+		}
+		return raster;
+	}
+
+	/**
+	 * Writes the raster into the first two dimensions of a binary image at
+	 * the position it was copied from. If the raster only covers a region of
+	 * the image, pixels outside of this region are not changed.
+	 *
+	 * @param image
+	 *            the image to write to
+	 */
+	public <T extends RandomAccessibleInterval<BitType> & IterableInterval<BitType>> void writeTo(
+			T image) {
+		long[] pos = new long[image.numDimensions()];
+		image.min(pos);
+		long minX = pos[0];
+		long minY = pos[1];
+
+		if (offsetX == 0 && offsetY == 0 && width == image.dimension(0)
+				&& height == image.dimension(1)) {
+			Cursor<BitType> c = image.localizingCursor();
+			while (c.hasNext()) {
+				c.fwd();
+				c.get().set(
+						data[index((int) (c.getLongPosition(0) - minX),
+								(int) (c.getLongPosition(1) - minY))] != 0);
+			}
+			return;
+		}
+
+		RandomAccess<BitType> ra = image.randomAccess();
+		ra.setPosition(pos);
+		for (int y = 0; y < height; y++) {
+			ra.setPosition(minX + offsetX, 0);
+			ra.setPosition(minY + offsetY + y, 1);
+			int index = index(0, y);
+			for (int x = 0; x < width; x++, index++) {
+				ra.get().set(data[index] != 0);
+				ra.fwd(0);
+			}
+		}
+	}
+
+	/**
+	 * @return width of the image
+	 */
+	public int width() {
+		return width;
+	}
+
+	/**
+	 * @return height of the image
+	 */
+	public int height() {
+		return height;
+	}
+
+	/**
+	 * @return x- position of the raster in the image it was copied from
+	 */
+	public int offsetX() {
+		return offsetX;
+	}
+
+	/**
+	 * @return y- position of the raster in the image it was copied from
+	 */
+	public int offsetY() {
+		return offsetY;
+	}
+
+	/**
+	 * @return length of one row in the data array, i.e. the index offset of
+	 *         the south neighbor
+	 */
+	public int stride() {
+		return stride;
+	}
+
+	/**
+	 * Gives direct access to the pixels. Use {@link #index(int, int)} to get
+	 * the position of an image pixel.
+	 *
+	 * @return the pixel array
+	 */
+	public byte[] data() {
+		return data;
+	}
+
+	/**
+	 * @param x
+	 *            x- coordinate (0 ... width-1)
+	 * @param y
+	 *            y- coordinate (0 ... height-1)
+	 * @return position of the pixel in the data array
+	 */
+	public int index(int x, int y) {
+		return (y + 1) * stride + x + 1;
+	}
+
+	/**
+	 * @param index
+	 *            position in the data array
+	 * @return x- coordinate of the pixel
+	 */
+	public int x(int index) {
+		return index % stride - 1;
+	}
+
+	/**
+	 * @param index
+	 *            position in the data array
+	 * @return y- coordinate of the pixel
+	 */
+	public int y(int index) {
+		return index / stride - 1;
+	}
+
+	/**
+	 * Gets the 8-neighborhood of a pixel as a bit mask (see the constants
+	 * {@link #NW} ... {@link #SE}).
+	 *
+	 * @param index
+	 *            position of the pixel in the data array
+	 * @return neighborhood mask between 0 and 255
+	 */
+	public int neighborhood(int index) {
+		int up = index - stride;
+		int down = index + stride;
+		return data[up - 1] | data[up] << 1 | data[up + 1] << 2
+				| data[index - 1] << 3 | data[index + 1] << 4
+				| data[down - 1] << 5 | data[down] << 6 | data[down + 1] << 7;
+	}
+}
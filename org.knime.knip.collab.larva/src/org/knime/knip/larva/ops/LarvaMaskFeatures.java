@@ -0,0 +1,155 @@
+package org.knime.knip.larva.ops;
+
+import net.imglib2.IterableInterval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.ops.operation.UnaryOperation;
+import net.imglib2.type.logic.BitType;
+
+/**
+ * Computes the ends, the center and the length of the spine of a larva
+ * directly from its binary mask. The bounding box of the foreground is copied
+ * into a {@link BinaryRaster}, thinned in place and its points are passed to a
+ * {@link SkeletonGraph}, so no thinned image is created.
+ *
+ * The result array holds the positions at the indices {@link #END1_X} ...
+ * {@link #CENTER_Y} and the number of spine points at {@link #SPINE_LENGTH}.
+ * Like the values of {@link org.knime.knip.larva.LarvaFeatureSet} the
+ * positions are the coordinates of the mask shifted by one. If the mask is
+ * empty all values are 0.
+ *
+ * {@link #computeSpine(IterableInterval)} thins a region of interest instead
+ * of a mask, it is used by the larva feature set on segments which were not
+ * thinned before.
+ *
+ * @author wildnerm, University of Konstanz
+ */
+public class LarvaMaskFeatures<TYPE extends RandomAccessibleInterval<BitType> & IterableInterval<BitType>>
+		implements UnaryOperation<TYPE, double[]> {
+
+	/** index of the x- position of the first end */
+	public static final int END1_X = 0;
+	/** index of the y- position of the first end */
+	public static final int END1_Y = 1;
+	/** index of the x- position of the second end */
+	public static final int END2_X = 2;
+	/** index of the y- position of the second end */
+	public static final int END2_Y = 3;
+	/** index of the x- position of the center */
+	public static final int CENTER_X = 4;
+	/** index of the y- position of the center */
+	public static final int CENTER_Y = 5;
+	/** index of the number of spine points */
+	public static final int SPINE_LENGTH = 6;
+	/** length of the result array */
+	public static final int NUM_FEATURES = 7;
+
+	private final AbstractThinning<TYPE> m_thinning;
+
+	private final int m_minSpurLength;
+
+	private final SkeletonGraph m_skeletonGraph;
+
+	/**
+	 * @param thinning
+	 *            the thinning to apply on the mask, its crop setting is
+	 *            ignored
+	 * @param minSpurLength
+	 *            see {@link SkeletonGraph#SkeletonGraph(int)}
+	 */
+	public LarvaMaskFeatures(AbstractThinning<TYPE> thinning, int minSpurLength) {
+		m_thinning = thinning;
+		m_minSpurLength = minSpurLength;
+		m_skeletonGraph = new SkeletonGraph(minSpurLength);
+	}
+
+	/**
+	 * Thins the mask and computes the features of its spine.
+	 *
+	 * @param input
+	 *            the binary mask of the larva
+	 * @param output
+	 *            array of at least {@link #NUM_FEATURES} values
+	 */
+	@Override
+	public double[] compute(TYPE input, double[] output) {
+
+		BinaryRaster raster = BinaryRaster.copyOfForeground(input);
+		int length = computeSpine(raster, (int) input.min(0)
+				+ raster.offsetX(), (int) input.min(1) + raster.offsetY());
+		if (length == 0) {
+			for (int i = 0; i < NUM_FEATURES; i++) {
+				output[i] = 0;
+			}
+			return output;
+		}
+		output[END1_X] = m_skeletonGraph.spineX(0) + 1;
+		output[END1_Y] = m_skeletonGraph.spineY(0) + 1;
+		output[END2_X] = m_skeletonGraph.spineX(length - 1) + 1;
+		output[END2_Y] = m_skeletonGraph.spineY(length - 1) + 1;
+		output[CENTER_X] = m_skeletonGraph.spineX(length / 2) + 1;
+		output[CENTER_Y] = m_skeletonGraph.spineY(length / 2) + 1;
+		output[SPINE_LENGTH] = length;
+		return output;
+	}
+
+	/**
+	 * Thins the pixels of a region of interest and sorts the points of its
+	 * spine, all visited pixels are foreground (see
+	 * {@link BinaryRaster#copyOfRegion(IterableInterval)}).
+	 *
+	 * @param region
+	 *            the region of the larva
+	 * @return number of spine points in {@link #getSkeletonGraph()}, 0 if the
+	 *         region is empty
+	 */
+	public int computeSpine(IterableInterval<?> region) {
+		return computeSpine(BinaryRaster.copyOfRegion(region),
+				(int) region.min(0), (int) region.min(1));
+	}
+
+	/**
+	 * @return the graph holding the spine of the last computation, its buffers
+	 *         are reused for the next one
+	 */
+	public SkeletonGraph getSkeletonGraph() {
+		return m_skeletonGraph;
+	}
+
+	/**
+	 * Thins the raster in place and passes the remaining points in scan order
+	 * to the graph.
+	 *
+	 * @param raster
+	 *            the raster to thin
+	 * @param minX
+	 *            x- position of the raster in the mask
+	 * @param minY
+	 *            y- position of the raster in the mask
+	 * @return number of spine points
+	 */
+	private int computeSpine(BinaryRaster raster, int minX, int minY) {
+		m_thinning.computeThinImage(raster);
+
+		int width = raster.width();
+		int height = raster.height();
+		byte[] data = raster.data();
+		m_skeletonGraph.reset(minX, minY, width, height);
+		for (int y = 0; y < height; y++) {
+			int index = raster.index(0, y);
+			for (int x = 0; x < width; x++, index++) {
+				if (data[index] != 0) {
+					m_skeletonGraph.addPoint(minX + x, minY + y);
+				}
+			}
+		}
+
+		return m_skeletonGraph.computeSpine();
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public UnaryOperation<TYPE, double[]> copy() {
+		return new LarvaMaskFeatures<TYPE>(
+				(AbstractThinning<TYPE>) m_thinning.copy(), m_minSpurLength);
+	}
+}
@@ -0,0 +1,326 @@
+package org.knime.knip.larva.ops;
+
+import java.util.Arrays;
+
+/**
+ * Graph of the 8-connected points of a thinned larva. The points are indexed
+ * in a dense grid over their bounding box, so all steps only look at the
+ * 8-neighborhood of a point and take linear time:
+ *
+ * <ol>
+ * <li>End points (one neighbor) and junctions (three or more neighbors) are
+ * found.</li>
+ * <li>Spurs, i.e. branches from an end point to a junction which are shorter
+ * than the minimum spur length, are removed.</li>
+ * <li>The spine is the path between two far points of the largest component:
+ * the farthest point from an arbitrary point and the farthest point from
+ * there, found by two breadth-first searches. It starts at the end which
+ * comes first in the order the points were added.</li>
+ * </ol>
+ *
+ * The spine is the longest geodesic path only if the component is a tree. A
+ * skeleton with cycles, e.g. of a mask with holes, yields a long path between
+ * two far points, which is not necessarily the longest one.
+ *
+ * On a skeleton without branches the spine contains all points, starting at
+ * the first end point. All buffers grow as needed and are reused by the next
+ * skeleton.
+ *
+ * @author wildnerm, University of Konstanz
+ */
+public final class SkeletonGraph {
+
+	/** branches shorter than this (in points) are removed */
+	private final int m_minSpurLength;
+
+	/** position of the grid */
+	private int m_minX;
+	private int m_minY;
+	/** size of the grid */
+	private int m_width;
+	private int m_height;
+
+	/**
+	 * index of the point at each grid position plus one, 0 for positions
+	 * without (or with removed) points
+	 */
+	private int[] m_grid = new int[0];
+
+	/** coordinates of the points in the order they were added */
+	private int[] m_pointsX = new int[64];
+	private int[] m_pointsY = new int[64];
+	private int m_numPoints;
+
+	/** number of neighbors of each point, -1 for removed points */
+	private int[] m_degree = new int[64];
+	/** BFS distance of each point, also used to mark points */
+	private int[] m_dist = new int[64];
+	/** BFS predecessor of each point */
+	private int[] m_parent = new int[64];
+	/** BFS queue and branch buffer */
+	private int[] m_queue = new int[64];
+	/** indices of the points of the spine */
+	private int[] m_spine = new int[64];
+	private int m_spineLength;
+
+	/** neighbors of a point */
+	private final int[] m_neighbors = new int[8];
+
+	/**
+	 * @param minSpurLength
+	 *            branches between an end point and a junction with less points
+	 *            are removed before the spine is searched, 0 to keep all
+	 *            branches
+	 */
+	public SkeletonGraph(int minSpurLength) {
+		m_minSpurLength = minSpurLength;
+	}
+
+	/**
+	 * Removes all points and prepares the grid for a new skeleton.
+	 *
+	 * @param minX
+	 *            smallest x- coordinate of a point
+	 * @param minY
+	 *            smallest y- coordinate of a point
+	 * @param width
+	 *            width of the bounding box of the points
+	 * @param height
+	 *            height of the bounding box of the points
+	 */
+	public void reset(int minX, int minY, int width, int height) {
+		m_minX = minX;
+		m_minY = minY;
+		m_width = width;
+		m_height = height;
+		if (m_grid.length < width * height) {
+			m_grid = new int[width * height];
+		} else {
+			Arrays.fill(m_grid, 0, width * height, 0);
+		}
+		m_numPoints = 0;
+		m_spineLength = 0;
+	}
+
+	/**
+	 * Adds a point of the skeleton. Points have to be added at most once.
+	 *
+	 * @param x
+	 *            x- coordinate
+	 * @param y
+	 *            y- coordinate
+	 */
+	public void addPoint(int x, int y) {
+		if (m_numPoints == m_pointsX.length) {
+			int capacity = 2 * m_numPoints;
+			m_pointsX = Arrays.copyOf(m_pointsX, capacity);
+			m_pointsY = Arrays.copyOf(m_pointsY, capacity);
+			m_degree = new int[capacity];
+			m_dist = new int[capacity];
+			m_parent = new int[capacity];
+			m_queue = new int[capacity];
+			m_spine = new int[capacity];
+		}
+		m_pointsX[m_numPoints] = x;
+		m_pointsY[m_numPoints] = y;
+		m_numPoints++;
+		m_grid[(y - m_minY) * m_width + x - m_minX] = m_numPoints;
+	}
+
+	/**
+	 * @return number of added points
+	 */
+	public int numPoints() {
+		return m_numPoints;
+	}
+
+	/**
+	 * Prunes the spurs and searches the spine of the added points.
+	 *
+	 * @return number of points of the spine
+	 */
+	public int computeSpine() {
+		m_spineLength = 0;
+		if (m_numPoints == 0) {
+			return 0;
+		}
+
+		for (int p = 0; p < m_numPoints; p++) {
+			m_degree[p] = getNeighbors(p);
+		}
+		if (m_minSpurLength > 0) {
+			pruneSpurs();
+		}
+
+		// farthest point of the largest component from an arbitrary point
+		Arrays.fill(m_dist, 0, m_numPoints, -1);
+		int maxSize = 0;
+		int start = -1;
+		for (int p = 0; p < m_numPoints; p++) {
+			if (m_degree[p] < 0 || m_dist[p] >= 0) {
+				continue;
+			}
+			int size = breadthFirstSearch(p);
+			if (size > maxSize) {
+				maxSize = size;
+				start = m_queue[size - 1];
+			}
+		}
+
+		// the farthest point from there is the other end of the spine
+		Arrays.fill(m_dist, 0, m_numPoints, -1);
+		int size = breadthFirstSearch(start);
+		int end = m_queue[size - 1];
+
+		// the spine starts at the end which was added first
+		m_spineLength = m_dist[end] + 1;
+		if (start < end) {
+			for (int i = m_spineLength - 1, p = end; i >= 0; i--, p = m_parent[p]) {
+				m_spine[i] = p;
+			}
+		} else {
+			for (int i = 0, p = end; i < m_spineLength; i++, p = m_parent[p]) {
+				m_spine[i] = p;
+			}
+		}
+		return m_spineLength;
+	}
+
+	/**
+	 * @return number of points of the spine
+	 */
+	public int spineLength() {
+		return m_spineLength;
+	}
+
+	/**
+	 * @param i
+	 *            position on the spine (0 ... spineLength-1)
+	 * @return x- coordinate of the spine point
+	 */
+	public int spineX(int i) {
+		return m_pointsX[m_spine[i]];
+	}
+
+	/**
+	 * @param i
+	 *            position on the spine (0 ... spineLength-1)
+	 * @return y- coordinate of the spine point
+	 */
+	public int spineY(int i) {
+		return m_pointsY[m_spine[i]];
+	}
+
+	/**
+	 * Removes all branches which lead from an end point to a junction and
+	 * have less than the minimum spur length points. Each end point is only
+	 * followed for at most that many points. The degrees of the remaining
+	 * points are updated, so a junction which is left with one branch becomes
+	 * an end point.
+	 */
+	private void pruneSpurs() {
+		Arrays.fill(m_dist, 0, m_numPoints, -1);
+		for (int p = 0; p < m_numPoints; p++) {
+			if (m_degree[p] != 1) {
+				continue;
+			}
+			// follow the branch, the points are marked with the end point
+			int length = 0;
+			int current = p;
+			while (current >= 0 && length <= m_minSpurLength) {
+				if (m_degree[current] >= 3) {
+					// junction reached, remove the branch before it
+					if (length < m_minSpurLength) {
+						for (int i = 0; i < length; i++) {
+							removePoint(m_queue[i]);
+						}
+					}
+					break;
+				}
+				if (m_degree[current] == 1 && current != p) {
+					break; // the component has no junction
+				}
+				m_queue[length++] = current;
+				m_dist[current] = p;
+
+				int numNeighbors = getNeighbors(current);
+				int next = -1;
+				for (int n = 0; n < numNeighbors; n++) {
+					if (m_dist[m_neighbors[n]] != p) {
+						next = m_neighbors[n];
+						break;
+					}
+				}
+				current = next;
+			}
+		}
+	}
+
+	/**
+	 * Visits the component of a point in breadth-first order. The points are
+	 * left in {@link #m_queue} in the order of their distance, the last one
+	 * is the farthest point.
+	 *
+	 * @param start
+	 *            index of the start point
+	 * @return number of points of the component
+	 */
+	private int breadthFirstSearch(int start) {
+		m_dist[start] = 0;
+		m_parent[start] = -1;
+		m_queue[0] = start;
+		int size = 1;
+		for (int head = 0; head < size; head++) {
+			int p = m_queue[head];
+			int numNeighbors = getNeighbors(p);
+			for (int n = 0; n < numNeighbors; n++) {
+				int q = m_neighbors[n];
+				if (m_dist[q] < 0) {
+					m_dist[q] = m_dist[p] + 1;
+					m_parent[q] = p;
+					m_queue[size++] = q;
+				}
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Collects the remaining 8-neighbors of a point in {@link #m_neighbors}.
+	 *
+	 * @param p
+	 *            index of the point
+	 * @return number of neighbors
+	 */
+	private int getNeighbors(int p) {
+		int x = m_pointsX[p] - m_minX;
+		int y = m_pointsY[p] - m_minY;
+		int numNeighbors = 0;
+		for (int ny = Math.max(y - 1, 0); ny <= Math.min(y + 1, m_height - 1); ny++) {
+			for (int nx = Math.max(x - 1, 0); nx <= Math.min(x + 1,
+					m_width - 1); nx++) {
+				int q = m_grid[ny * m_width + nx] - 1;
+				if (q >= 0 && q != p) {
+					m_neighbors[numNeighbors++] = q;
+				}
+			}
+		}
+		return numNeighbors;
+	}
+
+	/**
+	 * Removes a point from the graph and decrements the degree of its
+	 * neighbors.
+	 *
+	 * @param p
+	 *            index of the point
+	 */
+	private void removePoint(int p) {
+		m_grid[(m_pointsY[p] - m_minY) * m_width + m_pointsX[p] - m_minX] = 0;
+		m_degree[p] = -1;
+		int numNeighbors = getNeighbors(p);
+		for (int n = 0; n < numNeighbors; n++) {
+			m_degree[m_neighbors[n]]--;
+		}
+	}
+}
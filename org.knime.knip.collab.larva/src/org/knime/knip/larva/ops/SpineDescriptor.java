@@ -0,0 +1,170 @@
+package org.knime.knip.larva.ops;
+
+import java.util.Arrays;
+
+/**
+ * Describes the spine of a {@link SkeletonGraph} by its arc length, a number
+ * of equally spaced midline points and the curvature along the midline.
+ *
+ * The arc length is the length of the polygon through the spine points (1 for
+ * horizontal and vertical steps, sqrt(2) for diagonal steps). The midline
+ * points are interpolated linearly between the spine points, the first and
+ * the last one are the ends of the spine. The curvature at an inner midline
+ * point is the turning angle between its two midline segments divided by the
+ * segment length.
+ *
+ * @author wildnerm, University of Konstanz
+ */
+public final class SpineDescriptor {
+
+	/** number of midline points */
+	private final int m_numMidlinePoints;
+
+	/** arc length from the first spine point to each spine point */
+	private double[] m_arcLength = new double[64];
+
+	private final double[] m_midlineX;
+	private final double[] m_midlineY;
+
+	private double m_length;
+	private double m_meanCurvature;
+	private double m_maxCurvature;
+	private double m_curvatureSD;
+
+	/**
+	 * @param numMidlinePoints
+	 *            number of equally spaced midline points, at least 3
+	 */
+	public SpineDescriptor(int numMidlinePoints) {
+		if (numMidlinePoints < 3) {
+			throw new IllegalArgumentException(
+					"At least 3 midline points are needed: " + numMidlinePoints);
+		}
+		m_numMidlinePoints = numMidlinePoints;
+		m_midlineX = new double[numMidlinePoints];
+		m_midlineY = new double[numMidlinePoints];
+	}
+
+	/**
+	 * Describes the current spine of a graph. If the spine is empty, all
+	 * values are 0.
+	 *
+	 * @param graph
+	 *            graph whose spine was computed
+	 */
+	public void compute(SkeletonGraph graph) {
+		int length = graph.spineLength();
+		m_length = 0;
+		m_meanCurvature = 0;
+		m_maxCurvature = 0;
+		m_curvatureSD = 0;
+		if (length <= 1) {
+			Arrays.fill(m_midlineX, length == 0 ? 0 : graph.spineX(0));
+			Arrays.fill(m_midlineY, length == 0 ? 0 : graph.spineY(0));
+			return;
+		}
+
+		// arc length
+		if (m_arcLength.length < length) {
+			m_arcLength = new double[Math.max(length, 2 * m_arcLength.length)];
+		}
+		m_arcLength[0] = 0;
+		for (int i = 1; i < length; i++) {
+			int dx = graph.spineX(i) - graph.spineX(i - 1);
+			int dy = graph.spineY(i) - graph.spineY(i - 1);
+			m_arcLength[i] = m_arcLength[i - 1]
+					+ (dx != 0 && dy != 0 ? Math.sqrt(2) : 1);
+		}
+		m_length = m_arcLength[length - 1];
+
+		// equally spaced midline points, the spine points are walked once
+		double spacing = m_length / (m_numMidlinePoints - 1);
+		int segment = 0;
+		for (int m = 0; m < m_numMidlinePoints; m++) {
+			double s = m == m_numMidlinePoints - 1 ? m_length : m * spacing;
+			while (segment < length - 2 && m_arcLength[segment + 1] < s) {
+				segment++;
+			}
+			double t = (s - m_arcLength[segment])
+					/ (m_arcLength[segment + 1] - m_arcLength[segment]);
+			m_midlineX[m] = graph.spineX(segment) + t
+					* (graph.spineX(segment + 1) - graph.spineX(segment));
+			m_midlineY[m] = graph.spineY(segment) + t
+					* (graph.spineY(segment + 1) - graph.spineY(segment));
+		}
+
+		// curvature at the inner midline points
+		double sum = 0;
+		double sumSq = 0;
+		for (int m = 1; m < m_numMidlinePoints - 1; m++) {
+			double ax = m_midlineX[m] - m_midlineX[m - 1];
+			double ay = m_midlineY[m] - m_midlineY[m - 1];
+			double bx = m_midlineX[m + 1] - m_midlineX[m];
+			double by = m_midlineY[m + 1] - m_midlineY[m];
+			double curvature = Math.abs(Math.atan2(ax * by - ay * bx, ax * bx
+					+ ay * by))
+					/ spacing;
+			sum += curvature;
+			sumSq += curvature * curvature;
+			m_maxCurvature = Math.max(m_maxCurvature, curvature);
+		}
+		int n = m_numMidlinePoints - 2;
+		m_meanCurvature = sum / n;
+		m_curvatureSD = Math.sqrt(Math.max(0, sumSq / n - m_meanCurvature
+				* m_meanCurvature));
+	}
+
+	/**
+	 * @return number of midline points
+	 */
+	public int numMidlinePoints() {
+		return m_numMidlinePoints;
+	}
+
+	/**
+	 * @return arc length of the spine
+	 */
+	public double length() {
+		return m_length;
+	}
+
+	/**
+	 * @return mean of the absolute curvature at the inner midline points
+	 */
+	public double meanCurvature() {
+		return m_meanCurvature;
+	}
+
+	/**
+	 * @return maximum of the absolute curvature at the inner midline points
+	 */
+	public double maxCurvature() {
+		return m_maxCurvature;
+	}
+
+	/**
+	 * @return standard deviation of the absolute curvature at the inner
+	 *         midline points
+	 */
+	public double curvatureSD() {
+		return m_curvatureSD;
+	}
+
+	/**
+	 * @param m
+	 *            index of the midline point (0 ... numMidlinePoints-1)
+	 * @return x- coordinate of the midline point
+	 */
+	public double midlineX(int m) {
+		return m_midlineX[m];
+	}
+
+	/**
+	 * @param m
+	 *            index of the midline point (0 ... numMidlinePoints-1)
+	 * @return y- coordinate of the midline point
+	 */
+	public double midlineY(int m) {
+		return m_midlineY[m];
+	}
+}
@@ -0,0 +1,133 @@
+package org.knime.knip.larva.ops;
+
+import java.util.Arrays;
+
+import net.imglib2.IterableInterval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.ops.operation.UnaryOperation;
+import net.imglib2.type.logic.BitType;
+
+/**
+ * This class applies the two-subiteration thinning of Guo and Hall on
+ * two-dimensional binary images:
+ *
+ * Z. Guo and R. W. Hall, "Parallel thinning with two-subiteration algorithms",
+ * Communications of the ACM 32(3), 1989.
+ *
+ * In contrast to {@link ThinningLee}, which emulates the 3D algorithm of Lee
+ * et al. on a single slice, only the 8-neighborhood of a pixel is considered.
+ * The deletion conditions of both subiterations are precomputed for all 256
+ * neighborhoods.
+ *
+ * @author wildnerm, University of Konstanz
+ */
+public class ThinningGuoHall<TYPE extends RandomAccessibleInterval<BitType> & IterableInterval<BitType>>
+		extends AbstractThinning<TYPE> {
+
+	/**
+	 * Lookup table for all neighborhood masks of {@link BinaryRaster}. Bit 0
+	 * is set if the center pixel can be deleted in the first subiteration,
+	 * bit 1 if it can be deleted in the second subiteration.
+	 */
+	private static final byte[] DELETABLE = createLUT();
+
+	public ThinningGuoHall() {
+		this(false);
+	}
+
+	/**
+	 * @param crop
+	 *            if true, only the bounding box of the foreground is thinned,
+	 *            see {@link AbstractThinning#AbstractThinning(boolean)}
+	 */
+	public ThinningGuoHall(boolean crop) {
+		super(crop);
+	}
+
+	/**
+	 * Thins the raster until no pixel is deleted in both subiterations.
+	 *
+	 * @param raster
+	 *            the image to thin
+	 */
+	@Override
+	protected void computeThinImage(BinaryRaster raster) {
+		byte[] data = raster.data();
+		int width = raster.width();
+		int height = raster.height();
+
+		int[] deletablePoints = new int[64];
+		int numDeletablePoints;
+
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (int iter = 1; iter <= 2; iter++) {
+				// mark all deletable points, then delete them in parallel
+				numDeletablePoints = 0;
+				for (int y = 0; y < height; y++) {
+					int index = raster.index(0, y);
+					for (int end = index + width; index < end; index++) {
+						if (data[index] == 0
+								|| (DELETABLE[raster.neighborhood(index)] & iter) == 0) {
+							continue;
+						}
+						if (numDeletablePoints == deletablePoints.length) {
+							deletablePoints = Arrays.copyOf(deletablePoints,
+									2 * numDeletablePoints);
+						}
+						deletablePoints[numDeletablePoints++] = index;
+					}
+				}
+				for (int i = 0; i < numDeletablePoints; i++) {
+					data[deletablePoints[i]] = 0;
+				}
+				if (numDeletablePoints > 0) {
+					changed = true;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Evaluates the conditions of Guo and Hall for all 256 neighborhoods.
+	 *
+	 * @return the lookup table
+	 */
+	private static byte[] createLUT() {
+		byte[] lut = new byte[256];
+		for (int mask = 0; mask < 256; mask++) {
+			// neighbors named as in the paper, clockwise starting at north
+			int p2 = (mask & BinaryRaster.N) != 0 ? 1 : 0;
+			int p3 = (mask & BinaryRaster.NE) != 0 ? 1 : 0;
+			int p4 = (mask & BinaryRaster.E) != 0 ? 1 : 0;
+			int p5 = (mask & BinaryRaster.SE) != 0 ? 1 : 0;
+			int p6 = (mask & BinaryRaster.S) != 0 ? 1 : 0;
+			int p7 = (mask & BinaryRaster.SW) != 0 ? 1 : 0;
+			int p8 = (mask & BinaryRaster.W) != 0 ? 1 : 0;
+			int p9 = (mask & BinaryRaster.NW) != 0 ? 1 : 0;
+
+			// number of 8-connected components of the neighborhood
+			int c = ((1 - p2) & (p3 | p4)) + ((1 - p4) & (p5 | p6))
+					+ ((1 - p6) & (p7 | p8)) + ((1 - p8) & (p9 | p2));
+			int n1 = (p9 | p2) + (p3 | p4) + (p5 | p6) + (p7 | p8);
+			int n2 = (p2 | p3) + (p4 | p5) + (p6 | p7) + (p8 | p9);
+			int n = Math.min(n1, n2);
+			if (c != 1 || n < 2 || n > 3) {
+				continue;
+			}
+			if (((p6 | p7 | (1 - p9)) & p8) == 0) {
+				lut[mask] |= 1;
+			}
+			if (((p2 | p3 | (1 - p5)) & p4) == 0) {
+				lut[mask] |= 2;
+			}
+		}
+		return lut;
+	}
+
+	@Override
+	public UnaryOperation<TYPE, TYPE> copy() {
+		return new ThinningGuoHall<TYPE>(isCropping());
+	}
+}
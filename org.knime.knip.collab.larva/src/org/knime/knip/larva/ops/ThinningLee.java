@@ -1,10 +1,15 @@
 package org.knime.knip.larva.ops;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-import net.imglib2.Cursor;
 import net.imglib2.IterableInterval;
-import net.imglib2.RandomAccess;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.ops.operation.UnaryOperation;
 import net.imglib2.type.logic.BitType;
@@ -28,79 +33,123 @@ import net.imglib2.type.logic.BitType;
  * You should have received a copy of the GNU General Public License along with
  * this program; if not, see <http://www.gnu.org/licenses>.
  * 
+ * The image is copied once into a {@link BinaryRaster} and all passes work on
+ * its byte array, the result is written back to the output at the end (see
+ * {@link AbstractThinning}).
+ * 
  * @author wilderm, University of Konstanz
  * 
  */
 public class ThinningLee<TYPE extends RandomAccessibleInterval<BitType> & IterableInterval<BitType>>
-		implements UnaryOperation<TYPE, TYPE> {
+		extends AbstractThinning<TYPE> {
+
+	/** the point is simple */
+	private static final byte SIMPLE = 1;
+	/** the point is Euler invariant */
+	private static final byte EULER_INVARIANT = 2;
+	/** the point is not the end of an arc */
+	private static final byte NO_ARC_END = 4;
+	/** the point is deletable if it is a border point */
+	private static final byte DELETABLE = SIMPLE | EULER_INVARIANT | NO_ARC_END;
+
+	/**
+	 * Properties of the center point for all neighborhood masks of
+	 * {@link BinaryRaster}. The slices above and below the image are empty, so
+	 * the 3x3x3 checks of [Lee94] only depend on the 8-neighborhood and can be
+	 * evaluated once for all 256 configurations.
+	 */
+	private static final byte[] POINT_TYPES = createPointTypes();
 
-	/** working image width */
-	private int width = 0;
-	/** working image height */
-	private int height = 0;
-	/** working image depth */
-	private int depth = 0;
+	/**
+	 * Minimum number of rows of a tile in parallel mode.
+	 */
+	private static final int MIN_TILE_HEIGHT = 32;
+
+	/**
+	 * If true, only pixels next to deleted pixels are revisited.
+	 */
+	private final boolean m_frontier;
+
+	/**
+	 * Executor for the tiles of a plane, null for sequential thinning.
+	 */
+	private final ExecutorService m_executor;
 
 	public ThinningLee() {
+		this(false, false);
+	}
+
+	/**
+	 * @param frontier
+	 *            if true, each pass only visits the pixels which may still be
+	 *            deletable (starting with the contour of the mask and adding the
+	 *            neighbors of deleted pixels) instead of the whole image. The
+	 *            result is the same, but the work depends on the size of the
+	 *            object instead of the size of the image.
+	 */
+	public ThinningLee(boolean frontier) {
+		this(frontier, false);
+	}
+
+	/**
+	 * @param frontier
+	 *            see {@link #ThinningLee(boolean)}
+	 * @param crop
+	 *            if true, only the bounding box of the foreground is thinned,
+	 *            see {@link AbstractThinning#AbstractThinning(boolean)}
+	 */
+	public ThinningLee(boolean frontier, boolean crop) {
+		this(frontier, crop, null);
+	}
+
+	/**
+	 * @param frontier
+	 *            see {@link #ThinningLee(boolean)}
+	 * @param crop
+	 *            if true, only the bounding box of the foreground is thinned,
+	 *            see {@link AbstractThinning#AbstractThinning(boolean)}
+	 * @param executor
+	 *            if not null, large planes are split into tiles of rows which
+	 *            are processed in parallel. The result is identical to the
+	 *            sequential thinning. Not used in frontier mode.
+	 */
+	public ThinningLee(boolean frontier, boolean crop, ExecutorService executor) {
+		super(crop);
+		m_frontier = frontier;
+		m_executor = executor;
 	}
 
 	/**
-	 * Applies the computation on the image.
+	 * Compute Thinning (method from fiji, by Ignacio Arganda-Carreras)
 	 * 
-	 * @param input
-	 *            the input values
-	 * @param output
-	 *            the output values
+	 * @param raster
+	 *            the image to thin
 	 */
 	@Override
-	public TYPE compute(TYPE input, TYPE output) {
-
-		// dimensions of the input
-		this.width = (int) input.dimension(0);
-		this.height = (int) input.dimension(1);
-		this.depth = 1;
-
-		// System.out.println("image expansion(horizontally, vertically): ("
-		// + width + ", " + height + ")");
-
-		// data preparation
-		Cursor<BitType> c1 = input.cursor();
-		BitType t1 = c1.get();
-		Cursor<BitType> c2 = output.cursor();
-		BitType t2 = c2.get();
-		while (c1.hasNext() && c2.hasNext()) {
-			c1.fwd();
-			c2.fwd();
-			double value = t1.getRealDouble();
-			if (value > 0) {
-				t2.setReal(1);
-			} else {
-				t2.setReal(0);
-			}
+	protected void computeThinImage(BinaryRaster raster) {
+		int numTiles = Math.min(Runtime.getRuntime().availableProcessors(),
+				raster.height() / MIN_TILE_HEIGHT);
+		if (m_frontier) {
+			computeThinImageFrontier(raster);
+		} else if (m_executor != null && numTiles > 1) {
+			computeThinImageParallel(raster, numTiles);
+		} else {
+			computeThinImageFull(raster);
 		}
-
-		// Compute Thinning (method from fiji, by Ignacio Arganda-Carreras)
-		output = computeThinImage(output);
-
-		return output;
 	}
 
 	/**
 	 * Post processing for computing thinning. (Code is adapted to the KNIME
 	 * environment)
 	 * 
-	 * @param outputImage
-	 *            output image stack
+	 * @param raster
+	 *            the image to thin
 	 */
-	private TYPE computeThinImage(TYPE outputImage) {
+	private void computeThinImageFull(BinaryRaster raster) {
 
-		ArrayList<int[]> simpleBorderPoints = new ArrayList<int[]>();
+		int[] borderOffsets = getBorderOffsets(raster);
 
-		// Prepare Euler LUT [Lee94]
-		int eulerLUT[] = new int[256];
-		fillEulerLUT(eulerLUT);
-
-		int iter = 1;
+		IndexList simpleBorderPoints = new IndexList();
 
 		// Loop through the image several times until there is no change.
 		int unchangedBorders = 0;
@@ -108,342 +157,412 @@ public class ThinningLee<TYPE extends RandomAccessibleInterval<BitType> & Iterab
 										// border types
 		{
 			unchangedBorders = 0;
-			for (int currentBorder = 1; currentBorder <= 6; currentBorder++) {
+			for (int currentBorder = 0; currentBorder < 6; currentBorder++) {
 
 				// Loop through the image.
-				for (int z = 0; z < depth; z++) {
-					int x = 0;
-					int y = 0;
-
-					// container for current position
-					int[] pos = new int[outputImage.numDimensions()];
-					Cursor<BitType> cOut = outputImage.cursor();
-					while (cOut.hasNext()) {
-						cOut.fwd();
-						cOut.localize(pos);
-						x = pos[0];
-						y = pos[1];
-						// check if point is foreground
-						if (!getPixel(outputImage, x, y, z)) {
-							continue; // current point is already background
-						}
-						// check 6-neighbors if point is a border point of type
-						// currentBorder
-						boolean isBorderPoint = false;
-						// North
-						if (currentBorder == 1
-								&& N(outputImage, x, y, z) != true)
-							isBorderPoint = true;
-						// South
-						if (currentBorder == 2
-								&& S(outputImage, x, y, z) != true)
-							isBorderPoint = true;
-						// East
-						if (currentBorder == 3
-								&& E(outputImage, x, y, z) != true)
-							isBorderPoint = true;
-						// West
-						if (currentBorder == 4
-								&& W(outputImage, x, y, z) != true)
-							isBorderPoint = true;
-						// Up
-						if (currentBorder == 5
-								&& U(outputImage, x, y, z) != true)
-							isBorderPoint = true;
-						// Bottom
-						if (currentBorder == 6
-								&& B(outputImage, x, y, z) != true)
-							isBorderPoint = true;
-
-						if (!isBorderPoint) {
-							continue; // current point is not deletable
-						}
-
-						// check if point is the end of an arc
-						int numberOfNeighbors = -1; // -1 and not 0 because the
-													// center pixel will be
-													// counted as well
-						boolean[] neighbor = getNeighborhood(outputImage, x, y,
-								z);
-						for (int i = 0; i < 27; i++) // i = 0..26
-						{
-							if (neighbor[i] == true)
-								numberOfNeighbors++;
-						}
-
-						if (numberOfNeighbors == 1) {
-							continue; // current point is not deletable
-						}
-
-						// Check if point is Euler invariant
-						if (!isEulerInvariant(
-								getNeighborhood(outputImage, x, y, z), eulerLUT)) {
-							continue; // current point is not deletable
-						}
-						// Check if point is simple (deletion does not change
-						// connectivity in the 3x3x3 neighborhood)
-						if (!isSimplePoint(getNeighborhood(outputImage, x, y, z))) {
-							continue; // current point is not deletable
-						}
-						// add all simple border points to a list for sequential
-						// re-checking
-						int[] index = new int[3];
-						index[0] = x;
-						index[1] = y;
-						index[2] = z;
-						simpleBorderPoints.add(index);
-					}
-					// }
-					// }
-				}
+				simpleBorderPoints.clear();
+				findSimpleBorderPoints(raster, borderOffsets[currentBorder],
+						0, raster.height(), simpleBorderPoints);
 
 				// sequential re-checking to preserve connectivity when
 				// deleting in a parallel way
-				boolean noChange = true;
-				int[] index = null;
-				for (int i = 0; i < simpleBorderPoints.size(); i++) {
-					index = simpleBorderPoints.get(i);
-					// 1. Set simple border point to 0
-					outputImage = setPixel(outputImage, index[0], index[1],
-							index[2], false);
-
-					// 2. Check if neighborhood is still connected
-					if (!isSimplePoint(getNeighborhood(outputImage, index[0],
-							index[1], index[2]))) {
-						// we cannot delete current point, so reset
-						outputImage = setPixel(outputImage, index[0], index[1],
-								index[2], true);
-					} else {
-						noChange = false;
-					}
-				}
-				if (noChange)
+				if (!deleteSimplePoints(raster, simpleBorderPoints, 0,
+						simpleBorderPoints.size()))
 					unchangedBorders++;
 
-				simpleBorderPoints.clear();
-
 			} // end currentBorder for loop
-
-			// Progress bar iterations
-			iter++;
 		}
-		return outputImage;
-	} /* end computeThinImage */
+	} /* end computeThinImageFull */
 
 	/* ----------------------------------------------------------------------- */
 	/**
-	 * Get neighborhood of a pixel in a 3D image (0 border conditions)
+	 * Same as {@link #computeThinImageFull(BinaryRaster)}, but instead of the whole
+	 * image only a frontier of pixels is visited. A pixel which is not
+	 * deletable for any border type can only become deletable if one of its
+	 * neighbors is deleted, so the frontier starts with the contour of the
+	 * mask and only the neighbors of deleted pixels are added. The frontier is
+	 * visited in scan order, hence the result is identical.
 	 * 
-	 * @param image
-	 *            3D image (ImageStack)
-	 * @param x
-	 *            x- coordinate
-	 * @param y
-	 *            y- coordinate
-	 * @param z
-	 *            z- coordinate (in image stacks the indexes start at 1)
-	 * @return corresponding 27-pixels neighborhood (0 if out of image)
+	 * @param raster
+	 *            the image to thin
 	 */
-	private boolean[] getNeighborhood(TYPE image, int x, int y, int z) {
-		boolean[] neighborhood = new boolean[27];
+	private void computeThinImageFrontier(BinaryRaster raster) {
 
-		neighborhood[0] = getPixel(image, x - 1, y - 1, z - 1);
-		neighborhood[1] = getPixel(image, x, y - 1, z - 1);
-		neighborhood[2] = getPixel(image, x + 1, y - 1, z - 1);
+		byte[] data = raster.data();
+		int width = raster.width();
+		int height = raster.height();
+		int stride = raster.stride();
 
-		neighborhood[3] = getPixel(image, x - 1, y, z - 1);
-		neighborhood[4] = getPixel(image, x, y, z - 1);
-		neighborhood[5] = getPixel(image, x + 1, y, z - 1);
+		int[] borderOffsets = getBorderOffsets(raster);
 
-		neighborhood[6] = getPixel(image, x - 1, y + 1, z - 1);
-		neighborhood[7] = getPixel(image, x, y + 1, z - 1);
-		neighborhood[8] = getPixel(image, x + 1, y + 1, z - 1);
+		// index offsets of the 8-neighbors
+		int[] neighborOffsets = new int[] { -stride - 1, -stride,
+				-stride + 1, -1, 1, stride - 1, stride, stride + 1 };
 
-		neighborhood[9] = getPixel(image, x - 1, y - 1, z);
-		neighborhood[10] = getPixel(image, x, y - 1, z);
-		neighborhood[11] = getPixel(image, x + 1, y - 1, z);
+		IndexList simpleBorderPoints = new IndexList();
 
-		neighborhood[12] = getPixel(image, x - 1, y, z);
-		neighborhood[13] = getPixel(image, x, y, z);
-		neighborhood[14] = getPixel(image, x + 1, y, z);
+		// pixels which may be deletable
+		IndexList frontier = new IndexList();
+		boolean[] inFrontier = new boolean[data.length];
 
-		neighborhood[15] = getPixel(image, x - 1, y + 1, z);
-		neighborhood[16] = getPixel(image, x, y + 1, z);
-		neighborhood[17] = getPixel(image, x + 1, y + 1, z);
+		// start with the contour (inner pixels are never deletable)
+		for (int y = 0; y < height; y++) {
+			int index = raster.index(0, y);
+			for (int end = index + width; index < end; index++) {
+				if (data[index] != 0 && raster.neighborhood(index) != 255) {
+					frontier.add(index);
+					inFrontier[index] = true;
+				}
+			}
+		}
 
-		neighborhood[18] = getPixel(image, x - 1, y - 1, z + 1);
-		neighborhood[19] = getPixel(image, x, y - 1, z + 1);
-		neighborhood[20] = getPixel(image, x + 1, y - 1, z + 1);
+		// Loop until there is no change for all the six border types.
+		int unchangedBorders = 0;
+		while (unchangedBorders < 6) {
+			unchangedBorders = 0;
+			for (int currentBorder = 0; currentBorder < 6; currentBorder++) {
+				int borderOffset = borderOffsets[currentBorder];
 
-		neighborhood[21] = getPixel(image, x - 1, y, z + 1);
-		neighborhood[22] = getPixel(image, x, y, z + 1);
-		neighborhood[23] = getPixel(image, x + 1, y, z + 1);
+				// visit the frontier in scan order
+				frontier.sort();
+				int keep = 0;
+				simpleBorderPoints.clear();
+				for (int i = 0; i < frontier.size(); i++) {
+					int index = frontier.get(i);
+					if (data[index] == 0
+							|| POINT_TYPES[raster.neighborhood(index)] != DELETABLE) {
+						// not deletable for any border type until a neighbor
+						// is deleted
+						inFrontier[index] = false;
+						continue;
+					}
+					frontier.set(keep++, index);
 
-		neighborhood[24] = getPixel(image, x - 1, y + 1, z + 1);
-		neighborhood[25] = getPixel(image, x, y + 1, z + 1);
-		neighborhood[26] = getPixel(image, x + 1, y + 1, z + 1);
+					// check 6-neighbor if point is a border point of type
+					// currentBorder
+					if (borderOffset != 0 && data[index + borderOffset] != 0) {
+						continue;
+					}
+					simpleBorderPoints.add(index);
+				}
+				frontier.truncate(keep);
 
-		return neighborhood;
-	} /* end getNeighborhood */
+				// sequential re-checking, the neighbors of deleted points join
+				// the frontier
+				boolean noChange = true;
+				for (int i = 0; i < simpleBorderPoints.size(); i++) {
+					int index = simpleBorderPoints.get(i);
+					data[index] = 0;
+					if ((POINT_TYPES[raster.neighborhood(index)] & SIMPLE) == 0) {
+						data[index] = 1;
+					} else {
+						noChange = false;
+						for (int n = 0; n < neighborOffsets.length; n++) {
+							int neighbor = index + neighborOffsets[n];
+							if (data[neighbor] != 0 && !inFrontier[neighbor]) {
+								frontier.add(neighbor);
+								inFrontier[neighbor] = true;
+							}
+						}
+					}
+				}
+				if (noChange)
+					unchangedBorders++;
+			}
+		}
+	} /* end computeThinImageFrontier */
 
 	/* ----------------------------------------------------------------------- */
 	/**
-	 * Get pixel in 3D image (0 border conditions)
+	 * Same as {@link #computeThinImageFull(BinaryRaster)}, but the image is
+	 * split into tiles of rows. The simple border points of the tiles are
+	 * searched in parallel (reading the rows around a tile as halo) and
+	 * concatenated in scan order. The sequential re-check of a point only
+	 * depends on the re-checked points in its 8-neighborhood, so the points
+	 * are split into groups between which there is at least one row without
+	 * points. These groups are re-checked in parallel, each in scan order,
+	 * hence the result is identical.
 	 * 
-	 * @param image
-	 *            3D image
-	 * @param x
-	 *            x- coordinate
-	 * @param y
-	 *            y- coordinate
-	 * @param z
-	 *            z- coordinate (in image stacks the indexes start at 1)
-	 * @return corresponding pixel (0 if out of image)
+	 * @param raster
+	 *            the image to thin
+	 * @param numTiles
+	 *            number of tiles
 	 */
-	private boolean getPixel(TYPE image, int x, int y, int z) {
-		if (x >= 0 && x < this.width && y >= 0 && y < this.height && z >= 0
-				&& z < this.depth) {
-			RandomAccess<BitType> acc = image.randomAccess();
-			BitType out = acc.get();
-			acc.setPosition(new int[] { x, y });
-			return (out.get());
-		} else
-			return false;
-	} /* end getPixel */
+	private void computeThinImageParallel(final BinaryRaster raster,
+			final int numTiles) {
 
-	/* ----------------------------------------------------------------------- */
-	/**
-	 * Set pixel in 3D image
-	 * 
-	 * @param image
-	 *            3D image
-	 * @param x
-	 *            x- coordinate
-	 * @param y
-	 *            y- coordinate
-	 * @param z
-	 *            z- coordinate (in image stacks the indexes start at 1)
-	 * @param value
-	 *            pixel value
-	 */
-	private TYPE setPixel(TYPE image, int x, int y, int z, boolean value) {
-		if (x >= 0 && x < this.width && y >= 0 && y < this.height && z >= 0
-				&& z < this.depth) {
-			RandomAccess<BitType> acc = image.randomAccess();
-			BitType out = acc.get();
-			acc.setPosition(new int[] { x, y });
-			out.set(value);
+		int height = raster.height();
+		int[] borderOffsets = getBorderOffsets(raster);
+
+		final IndexList[] tilePoints = new IndexList[numTiles];
+		final int[] tileRows = new int[numTiles + 1];
+		for (int t = 0; t < numTiles; t++) {
+			tilePoints[t] = new IndexList();
+			tileRows[t + 1] = (int) ((long) height * (t + 1) / numTiles);
 		}
-		return image;
-	} /* end getPixel */
+		final IndexList simpleBorderPoints = new IndexList();
+		IndexList groupStarts = new IndexList();
+
+		int unchangedBorders = 0;
+		while (unchangedBorders < 6) {
+			unchangedBorders = 0;
+			for (int currentBorder = 0; currentBorder < 6; currentBorder++) {
+				final int borderOffset = borderOffsets[currentBorder];
+
+				// 1. simple border points of all tiles
+				List<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>();
+				for (int t = 0; t < numTiles; t++) {
+					final int tile = t;
+					tasks.add(new Callable<Boolean>() {
+						@Override
+						public Boolean call() {
+							tilePoints[tile].clear();
+							findSimpleBorderPoints(raster, borderOffset,
+									tileRows[tile], tileRows[tile + 1],
+									tilePoints[tile]);
+							return true;
+						}
+					});
+				}
+				invokeAll(tasks);
+				simpleBorderPoints.clear();
+				for (int t = 0; t < numTiles; t++) {
+					simpleBorderPoints.addAll(tilePoints[t]);
+				}
+
+				// 2. split into independent groups of about the same size
+				int numPoints = simpleBorderPoints.size();
+				groupStarts.clear();
+				groupStarts.add(0);
+				int groupStart = 0;
+				for (int i = 1; i < numPoints; i++) {
+					if (i - groupStart >= numPoints / numTiles
+							&& raster.y(simpleBorderPoints.get(i))
+									- raster.y(simpleBorderPoints.get(i - 1)) > 1) {
+						groupStarts.add(i);
+						groupStart = i;
+					}
+				}
+				groupStarts.add(numPoints);
+
+				// 3. re-check the groups
+				tasks.clear();
+				for (int g = 0; g < groupStarts.size() - 1; g++) {
+					final int from = groupStarts.get(g);
+					final int to = groupStarts.get(g + 1);
+					tasks.add(new Callable<Boolean>() {
+						@Override
+						public Boolean call() {
+							return deleteSimplePoints(raster,
+									simpleBorderPoints, from, to);
+						}
+					});
+				}
+				if (!invokeAll(tasks))
+					unchangedBorders++;
+			}
+		}
+	} /* end computeThinImageParallel */
 
 	/* ----------------------------------------------------------------------- */
 	/**
-	 * North neighborhood (0 border conditions)
+	 * Runs the tasks with the executor. Each task is run exactly once, either
+	 * by a thread of the executor or, if it was not started yet when it is
+	 * waited for, by the calling thread, so nested usage of a bounded
+	 * executor can not dead lock.
 	 * 
-	 * @param image
-	 *            3D image
-	 * @param x
-	 *            x- coordinate
-	 * @param y
-	 *            y- coordinate
-	 * @param z
-	 *            z- coordinate (in image stacks the indexes start at 1)
-	 * @return corresponding north pixel
+	 * @param tasks
+	 *            the tasks
+	 * @return true if at least one task returned true
 	 */
-	private boolean N(TYPE image, int x, int y, int z) {
-		return getPixel(image, x, y - 1, z);
-	} /* end N */
+	private boolean invokeAll(List<Callable<Boolean>> tasks) {
+		final AtomicBoolean[] started = new AtomicBoolean[tasks.size()];
+		List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+		for (int i = 0; i < tasks.size(); i++) {
+			started[i] = new AtomicBoolean();
+		}
+		for (int i = 1; i < tasks.size(); i++) {
+			final int task = i;
+			final Callable<Boolean> callable = tasks.get(i);
+			futures.add(m_executor.submit(new Callable<Boolean>() {
+				@Override
+				public Boolean call() throws Exception {
+					if (!started[task].compareAndSet(false, true)) {
+						return false; // already run by the calling thread
+					}
+					return callable.call();
+				}
+			}));
+		}
+		try {
+			boolean res = false;
+			for (int i = 0; i < tasks.size(); i++) {
+				if (started[i].compareAndSet(false, true)) {
+					res |= tasks.get(i).call();
+				} else {
+					res |= futures.get(i - 1).get();
+				}
+			}
+			return res;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	} /* end invokeAll */
 
 	/* ----------------------------------------------------------------------- */
 	/**
-	 * South neighborhood (0 border conditions)
+	 * index offsets of the 6-neighbors belonging to the border types North,
+	 * South, East, West, Up and Bottom. Up and Bottom lie outside of the 2D
+	 * image, hence every foreground point is a border point of these types
+	 * (offset 0).
 	 * 
-	 * @param image
-	 *            3D image
-	 * @param x
-	 *            x- coordinate
-	 * @param y
-	 *            y- coordinate
-	 * @param z
-	 *            z- coordinate (in image stacks the indexes start at 1)
-	 * @return corresponding south pixel
+	 * @param raster
+	 *            the image
+	 * @return the offsets
 	 */
-	private boolean S(TYPE image, int x, int y, int z) {
-		return getPixel(image, x, y + 1, z);
-	} /* end S */
+	private static int[] getBorderOffsets(BinaryRaster raster) {
+		return new int[] { -raster.stride(), raster.stride(), 1, -1, 0, 0 };
+	} /* end getBorderOffsets */
 
 	/* ----------------------------------------------------------------------- */
 	/**
-	 * East neighborhood (0 border conditions)
+	 * Adds all simple border points of a border type in the given rows to a
+	 * list (in scan order).
 	 * 
-	 * @param image
-	 *            3D image
-	 * @param x
-	 *            x- coordinate
-	 * @param y
-	 *            y- coordinate
-	 * @param z
-	 *            z- coordinate (in image stacks the indexes start at 1)
-	 * @return corresponding east pixel
+	 * @param raster
+	 *            the image
+	 * @param borderOffset
+	 *            offset of the 6-neighbor of the border type
+	 * @param y0
+	 *            first row
+	 * @param y1
+	 *            last row (exclusive)
+	 * @param simpleBorderPoints
+	 *            the list to add to
 	 */
-	private boolean E(TYPE image, int x, int y, int z) {
-		return getPixel(image, x + 1, y, z);
-	} /* end E */
+	private static void findSimpleBorderPoints(BinaryRaster raster,
+			int borderOffset, int y0, int y1, IndexList simpleBorderPoints) {
+		byte[] data = raster.data();
+		int width = raster.width();
+		for (int y = y0; y < y1; y++) {
+			int index = raster.index(0, y);
+			for (int end = index + width; index < end; index++) {
+				// check if point is foreground
+				if (data[index] == 0) {
+					continue; // current point is already background
+				}
+				// check 6-neighbor if point is a border point of type
+				// currentBorder
+				if (borderOffset != 0 && data[index + borderOffset] != 0) {
+					continue; // current point is not deletable
+				}
+
+				// check if point is not the end of an arc, Euler
+				// invariant and simple (deletion does not change
+				// connectivity in the 3x3x3 neighborhood)
+				if (POINT_TYPES[raster.neighborhood(index)] != DELETABLE) {
+					continue; // current point is not deletable
+				}
+				// add all simple border points to a list for sequential
+				// re-checking
+				simpleBorderPoints.add(index);
+			}
+		}
+	} /* end findSimpleBorderPoints */
 
 	/* ----------------------------------------------------------------------- */
 	/**
-	 * West neighborhood (0 border conditions)
+	 * Sequential re-checking of simple border points to preserve connectivity
+	 * when deleting in a parallel way.
 	 * 
-	 * @param image
-	 *            3D image
-	 * @param x
-	 *            x- coordinate
-	 * @param y
-	 *            y- coordinate
-	 * @param z
-	 *            z- coordinate (in image stacks the indexes start at 1)
-	 * @return corresponding west pixel
+	 * @param raster
+	 *            the image
+	 * @param simpleBorderPoints
+	 *            the points to delete
+	 * @param from
+	 *            first point to re-check
+	 * @param to
+	 *            last point to re-check (exclusive)
+	 * @return true if at least one point was deleted
 	 */
-	private boolean W(TYPE image, int x, int y, int z) {
-		return getPixel(image, x - 1, y, z);
-	} /* end W */
+	private static boolean deleteSimplePoints(BinaryRaster raster,
+			IndexList simpleBorderPoints, int from, int to) {
+		byte[] data = raster.data();
+		boolean changed = false;
+		for (int i = from; i < to; i++) {
+			int index = simpleBorderPoints.get(i);
+			// 1. Set simple border point to 0
+			data[index] = 0;
+
+			// 2. Check if neighborhood is still connected
+			if ((POINT_TYPES[raster.neighborhood(index)] & SIMPLE) == 0) {
+				// we cannot delete current point, so reset
+				data[index] = 1;
+			} else {
+				changed = true;
+			}
+		}
+		return changed;
+	} /* end deleteSimplePoints */
 
 	/* ----------------------------------------------------------------------- */
 	/**
-	 * Up neighborhood (0 border conditions)
+	 * Evaluates the point checks of [Lee94] for all 256 neighborhood masks.
 	 * 
-	 * @param image
-	 *            3D image
-	 * @param x
-	 *            x- coordinate
-	 * @param y
-	 *            y- coordinate
-	 * @param z
-	 *            z- coordinate (in image stacks the indexes start at 1)
-	 * @return corresponding up pixel
+	 * @return the point types, combinations of {@link #SIMPLE},
+	 *         {@link #EULER_INVARIANT} and {@link #NO_ARC_END}
 	 */
-	private boolean U(TYPE image, int x, int y, int z) {
-		return getPixel(image, x, y, z + 1);
-	} /* end U */
+	private static byte[] createPointTypes() {
+		// Prepare Euler LUT [Lee94]
+		int eulerLUT[] = new int[256];
+		fillEulerLUT(eulerLUT);
+
+		// 27-neighborhood, the slices above and below stay empty
+		boolean[] neighbor = new boolean[27];
+
+		byte[] pointTypes = new byte[256];
+		for (int mask = 0; mask < 256; mask++) {
+			fillNeighborhood(mask, neighbor);
+			if (isSimplePoint(neighbor)) {
+				pointTypes[mask] |= SIMPLE;
+			}
+			if (isEulerInvariant(neighbor, eulerLUT)) {
+				pointTypes[mask] |= EULER_INVARIANT;
+			}
+			if (Integer.bitCount(mask) != 1) {
+				pointTypes[mask] |= NO_ARC_END;
+			}
+		}
+		return pointTypes;
+	} /* end createPointTypes */
 
 	/* ----------------------------------------------------------------------- */
 	/**
-	 * Bottom neighborhood (0 border conditions)
+	 * Fills the middle slice of a 27-neighborhood (indices 9 to 17) from a
+	 * neighborhood mask of a {@link BinaryRaster}. The center is set to
+	 * foreground.
 	 * 
-	 * @param image
-	 *            3D image
-	 * @param x
-	 *            x- coordinate
-	 * @param y
-	 *            y- coordinate
-	 * @param z
-	 *            z- coordinate (in image stacks the indexes start at 1)
-	 * @return corresponding bottom pixel
+	 * @param mask
+	 *            8-neighborhood mask
+	 * @param neighborhood
+	 *            27-pixels neighborhood to fill
 	 */
-	private boolean B(TYPE image, int x, int y, int z) {
-		return getPixel(image, x, y, z - 1);
-	} /* end N */
+	private static void fillNeighborhood(int mask, boolean[] neighborhood) {
+		neighborhood[9] = (mask & BinaryRaster.NW) != 0;
+		neighborhood[10] = (mask & BinaryRaster.N) != 0;
+		neighborhood[11] = (mask & BinaryRaster.NE) != 0;
+		neighborhood[12] = (mask & BinaryRaster.W) != 0;
+		neighborhood[13] = true;
+		neighborhood[14] = (mask & BinaryRaster.E) != 0;
+		neighborhood[15] = (mask & BinaryRaster.SW) != 0;
+		neighborhood[16] = (mask & BinaryRaster.S) != 0;
+		neighborhood[17] = (mask & BinaryRaster.SE) != 0;
+	} /* end fillNeighborhood */
 
 	/* ----------------------------------------------------------------------- */
 	/**
@@ -452,7 +571,7 @@ public class ThinningLee<TYPE extends RandomAccessibleInterval<BitType> & Iterab
 	 * @param LUT
 	 *            Euler LUT
 	 */
-	private void fillEulerLUT(int[] LUT) {
+	private static void fillEulerLUT(int[] LUT) {
 		LUT[1] = 1;
 		LUT[3] = -1;
 		LUT[5] = -1;
@@ -596,7 +715,7 @@ public class ThinningLee<TYPE extends RandomAccessibleInterval<BitType> & Iterab
 	 *            Euler LUT
 	 * @return true or false if the point is Euler invariant or not
 	 */
-	boolean isEulerInvariant(boolean[] neighbors, int[] LUT) {
+	static boolean isEulerInvariant(boolean[] neighbors, int[] LUT) {
 		// Calculate Euler characteristic for each octant and sum up
 		int eulerChar = 0;
 		char n;
@@ -752,7 +871,7 @@ public class ThinningLee<TYPE extends RandomAccessibleInterval<BitType> & Iterab
 	 *            neighbor pixels of the point
 	 * @return true or false if the point is simple or not
 	 */
-	private boolean isSimplePoint(boolean[] neighbors) {
+	private static boolean isSimplePoint(boolean[] neighbors) {
 		// copy neighbors for labeling
 		int cube[] = new int[26];
 		int i = 0;
@@ -836,7 +955,7 @@ public class ThinningLee<TYPE extends RandomAccessibleInterval<BitType> & Iterab
 	 * @param label
 	 * @param cube
 	 */
-	private void octreeLabeling(int octant, int label, int[] cube) {
+	private static void octreeLabeling(int octant, int label, int[] cube) {
 		// check if there are points in the octant with value 1
 		if (octant == 1) {
 			// set points in this octant to current label
@@ -1119,6 +1238,57 @@ public class ThinningLee<TYPE extends RandomAccessibleInterval<BitType> & Iterab
 
 	@Override
 	public UnaryOperation<TYPE, TYPE> copy() {
-		return new ThinningLee<TYPE>();
+		return new ThinningLee<TYPE>(m_frontier, isCropping(), m_executor);
+	}
+
+	/* ----------------------------------------------------------------------- */
+	/**
+	 * Growable list of pixel indices.
+	 */
+	private static final class IndexList {
+
+		private int[] m_values = new int[64];
+
+		private int m_size = 0;
+
+		void add(int value) {
+			if (m_size == m_values.length) {
+				m_values = Arrays.copyOf(m_values, 2 * m_size);
+			}
+			m_values[m_size++] = value;
+		}
+
+		void addAll(IndexList list) {
+			if (m_size + list.m_size > m_values.length) {
+				m_values = Arrays.copyOf(m_values,
+						Math.max(2 * m_values.length, m_size + list.m_size));
+			}
+			System.arraycopy(list.m_values, 0, m_values, m_size, list.m_size);
+			m_size += list.m_size;
+		}
+
+		int get(int pos) {
+			return m_values[pos];
+		}
+
+		void set(int pos, int value) {
+			m_values[pos] = value;
+		}
+
+		int size() {
+			return m_size;
+		}
+
+		void truncate(int size) {
+			m_size = size;
+		}
+
+		void clear() {
+			m_size = 0;
+		}
+
+		void sort() {
+			Arrays.sort(m_values, 0, m_size);
+		}
 	}
 }